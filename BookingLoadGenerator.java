@@ -0,0 +1,199 @@
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Drives a running booking service (java Cinema_FullSystem --serve) the way box
+// office terminals would: read a seat map, hold free seats, then either book
+// them or let them go.
+//
+//   java BookingLoadGenerator [baseUrl] [threads] [seconds] [bookRatio]
+//
+// Defaults: http://localhost:8080 16 30 0.1. A bookRatio below 1 keeps long runs
+// from selling out every scheduled screening.
+public class BookingLoadGenerator {
+    static final Pattern TITLE = Pattern.compile("\"title\":\"((?:[^\"\\\\]|\\\\.)*)\"");
+    static final Pattern SHOWTIME = Pattern.compile("\"showtime\":\"((?:[^\"\\\\]|\\\\.)*)\"");
+    static final Pattern STRING = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+    static final Pattern HOLD = Pattern.compile("\"hold\":(\\d+)");
+    static final int SAMPLES = 200_000;
+
+    static final String[] OPS = {"seats", "hold", "book", "release"};
+
+    final String base;
+    final double bookRatio;
+    final java.util.List<String[]> screenings = new ArrayList<>();
+    final AtomicLong[] ok = new AtomicLong[OPS.length];
+    final AtomicLong conflicts = new AtomicLong();
+    final AtomicLong soldOut = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+
+    BookingLoadGenerator(String base, double bookRatio) {
+        this.base = base;
+        this.bookRatio = bookRatio;
+        for (int i = 0; i < ok.length; i++) ok[i] = new AtomicLong();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        double bookRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+        new BookingLoadGenerator(base, bookRatio).run(threads, seconds);
+    }
+
+    void run(int threads, int seconds) throws Exception {
+        Matcher m = TITLE.matcher(request("GET", "/movies", null).body);
+        while (m.find()) {
+            String title = unescape(m.group(1));
+            Matcher s = SHOWTIME.matcher(request("GET", "/screenings?movie=" + enc(title), null).body);
+            while (s.find()) screenings.add(new String[]{title, unescape(s.group(1))});
+        }
+        if (screenings.isEmpty()) throw new IllegalStateException("service returned no screenings");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        java.util.List<Future<long[][]>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            results.add(pool.submit(() -> worker(new Random(seed), deadline)));
+        }
+        long[][] merged = new long[OPS.length][];
+        for (Future<long[][]> f : results) {
+            long[][] part = f.get();
+            for (int i = 0; i < OPS.length; i++) merged[i] = concat(merged[i], part[i]);
+        }
+        pool.shutdown();
+
+        System.out.printf(Locale.US, "%d threads, %d s against %s%n", threads, seconds, base);
+        for (int i = 0; i < OPS.length; i++) {
+            long[] lat = merged[i];
+            Arrays.sort(lat);
+            System.out.printf(Locale.US, "%-8s %9d ok %9.1f/s   p50 %7.2f ms   p99 %7.2f ms%n", OPS[i], ok[i].get(),
+                    ok[i].get() / (double) seconds, percentile(lat, 0.50), percentile(lat, 0.99));
+        }
+        System.out.printf(Locale.US, "conflicts %d, sold-out seat maps %d, errors %d%n", conflicts.get(), soldOut.get(), errors.get());
+    }
+
+    // One terminal: latencies per operation in nanoseconds, capped at SAMPLES each.
+    long[][] worker(Random rnd, long deadline) {
+        long[][] lat = new long[OPS.length][SAMPLES];
+        int[] count = new int[OPS.length];
+        while (System.nanoTime() < deadline) {
+            try {
+                String[] screening = screenings.get(rnd.nextInt(screenings.size()));
+                String query = "movie=" + enc(screening[0]) + "&showtime=" + enc(screening[1]);
+                Response seats = timed(0, lat, count, "GET", "/seats?" + query, null);
+                if (seats.status != 200) continue;
+                java.util.List<String> free = freeSeats(seats.body);
+                if (free.isEmpty()) {
+                    soldOut.incrementAndGet();
+                    continue;
+                }
+                Collections.shuffle(free, rnd);
+                String wanted = String.join(",", free.subList(0, Math.min(free.size(), 1 + rnd.nextInt(2))));
+                Response hold = timed(1, lat, count, "POST", "/holds", query + "&seats=" + enc(wanted));
+                if (hold.status == 409) {
+                    conflicts.incrementAndGet();
+                    continue;
+                }
+                Matcher id = HOLD.matcher(hold.body);
+                if (hold.status != 201 || !id.find()) continue;
+                if (rnd.nextDouble() < bookRatio) {
+                    timed(2, lat, count, "POST", "/bookings", "hold=" + id.group(1) + "&name=Load+Test&contact=loadgen");
+                } else {
+                    timed(3, lat, count, "DELETE", "/holds?hold=" + id.group(1), null);
+                }
+            } catch (IOException ex) {
+                errors.incrementAndGet();
+            }
+        }
+        for (int i = 0; i < OPS.length; i++) lat[i] = Arrays.copyOf(lat[i], Math.min(count[i], SAMPLES));
+        return lat;
+    }
+
+    private Response timed(int op, long[][] lat, int[] count, String method, String path, String form) throws IOException {
+        long start = System.nanoTime();
+        Response r = request(method, path, form);
+        if (r.status >= 500) errors.incrementAndGet();
+        else if (r.status < 300) ok[op].incrementAndGet();
+        if (count[op] < SAMPLES) lat[op][count[op]] = System.nanoTime() - start;
+        count[op]++;
+        return r;
+    }
+
+    static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    Response request(String method, String path, String form) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(base + path).openConnection();
+        c.setRequestMethod(method);
+        if (form != null) {
+            c.setDoOutput(true);
+            c.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(form.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = c.getResponseCode();
+        InputStream in = status >= 400 ? c.getErrorStream() : c.getInputStream();
+        // Reading the body to the end lets the connection go back to the keep-alive pool.
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream is = in) {
+                byte[] buf = new byte[4096];
+                for (int n; (n = is.read(buf)) > 0; ) body.write(buf, 0, n);
+            }
+        }
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    static java.util.List<String> freeSeats(String seatMap) {
+        java.util.List<String> free = new ArrayList<>(array(seatMap, "seats"));
+        free.removeAll(new HashSet<>(array(seatMap, "occupied")));
+        return free;
+    }
+
+    static java.util.List<String> array(String json, String name) {
+        int from = json.indexOf("\"" + name + "\":[");
+        int to = json.indexOf(']', from);
+        java.util.List<String> out = new ArrayList<>();
+        if (from < 0 || to < 0) return out;
+        Matcher s = STRING.matcher(json.substring(from + name.length() + 4, to));
+        while (s.find()) out.add(unescape(s.group(1)));
+        return out;
+    }
+
+    static String enc(String s) throws UnsupportedEncodingException {
+        return URLEncoder.encode(s, "UTF-8");
+    }
+
+    static String unescape(String s) {
+        return s.replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    static long[] concat(long[] a, long[] b) {
+        if (a == null) return b;
+        long[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
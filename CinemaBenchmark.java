@@ -0,0 +1,344 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Headless benchmarks for the booking hot paths, run against synthetic booking
+// files so each performance change can be compared with the previous baseline.
+//
+//   javac -encoding UTF-8 Cinema_FullSystem.java CinemaBenchmark.java
+//   java -Xmx4g CinemaBenchmark [size...]
+//
+// Sizes default to 1000 10000 100000 1000000; add 10000000 for the full run.
+// -Dcinema.bookings.format=binary benchmarks the binary store, and
+// -Dbench.warmup / -Dbench.iterations change the number of rounds.
+// src/jmh/java runs the same scenarios under JMH (mvn -Pjmh package).
+public class CinemaBenchmark {
+    static final String[] MOVIES = {"Avengers: Endgame", "Inception", "Joker", "Moana 2"};
+    static final String[][] SHOWTIMES = {{"2:00 PM", "7:00 PM"}, {"12:00 PM", "9:00 PM"}, {"6:30 PM", "10:00 PM"}, {"11:00 AM", "5:00 PM"}};
+    // The halls BookingSystem.loadMovies schedules each movie in.
+    static final String[] HALLS = {"Hall 2", "Hall 1", "Hall 3", "Hall 1"};
+    static final LocalDate FIRST_DAY = LocalDate.now();
+    static final int DAYS = 14;
+    static final int BATCH = 1000;
+    // Receipts per export call, so the largest runs do not write millions of
+    // archive entries; smaller data sets are cycled to fill it.
+    static final int RECEIPTS = 10_000;
+
+    // Results are parked here so the JIT cannot drop the measured work.
+    static volatile Object sink;
+
+    // Run order; every name is a case of scenario(String, DataSet).
+    static final String[] SCENARIOS = {"load", "restart", "append", "save", "occupancy", "group", "checkout", "receipts", "catalog"};
+
+    private final int warmup = Integer.getInteger("bench.warmup", 3);
+    private final int iterations = Integer.getInteger("bench.iterations", 5);
+    private final boolean binary = "binary".equalsIgnoreCase(System.getProperty("cinema.bookings.format", "text"));
+    private final Path dir;
+
+    CinemaBenchmark(Path dir) {
+        this.dir = dir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[]{1000, 10000, 100000, 1000000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        Path dir = Files.createTempDirectory("cinema-bench");
+        try {
+            CinemaBenchmark bench = new CinemaBenchmark(dir);
+            System.out.printf(Locale.US, "%-14s %10s %14s %14s %14s%n", "benchmark", "bookings", "avg", "min", "max");
+            for (int size : sizes) bench.runAll(size);
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    void runAll(int size) throws Exception {
+        DataSet data = DataSet.write(dir, size, binary);
+        for (String name : SCENARIOS) {
+            try (Scenario s = scenario(name, data)) {
+                if (name.equals("restart")) {
+                    // Only the first checkpoint has a journal to fold, so it is timed once.
+                    String elapsed = time(data.checkpointNanos);
+                    System.out.printf(Locale.US, "%-14s %10d %14s %14s %14s%n", "checkpoint", size, elapsed, elapsed, elapsed);
+                }
+                bench(name, size, s.perCall, s);
+            }
+        }
+    }
+
+    // A synthetic booking file of the given size.
+    static final class DataSet {
+        final Path dir;
+        final Path csv;
+        final Path file;
+        final int size;
+        final boolean binary;
+        long checkpointNanos;
+
+        private DataSet(Path dir, Path csv, Path file, int size, boolean binary) {
+            this.dir = dir; this.csv = csv; this.file = file; this.size = size; this.binary = binary;
+        }
+
+        static DataSet write(Path dir, int size, boolean binary) throws IOException {
+            Path csv = dir.resolve("bookings-" + size + ".csv");
+            try (Cinema_FullSystem.BookingSystem seed = CinemaBenchmark.open(csv, binary)) {
+                writeSynthetic(seed.bookingsFile, seed.format, size);
+                return new DataSet(dir, csv, seed.bookingsFile, size, binary);
+            }
+        }
+
+        Cinema_FullSystem.BookingSystem open() {
+            return CinemaBenchmark.open(csv, binary);
+        }
+
+        // A system over its own copy of the file, for scenarios that write.
+        Cinema_FullSystem.BookingSystem copy(String name) throws IOException {
+            Cinema_FullSystem.BookingSystem sys = CinemaBenchmark.open(dir.resolve(name + "-" + size + ".csv"), binary);
+            // The journal opens its file on first use, so the copy lands before that.
+            Files.copy(file, sys.bookingsFile, StandardCopyOption.REPLACE_EXISTING);
+            return sys;
+        }
+
+        // The same history after one checkpoint, taken by the first call.
+        Path compacted() throws IOException {
+            Path compacted = dir.resolve("compacted-" + size + ".csv");
+            if (checkpointNanos > 0) return compacted;
+            try (Cinema_FullSystem.BookingSystem sys = CinemaBenchmark.open(compacted, binary)) {
+                Files.copy(file, sys.bookingsFile, StandardCopyOption.REPLACE_EXISTING);
+                long start = System.nanoTime();
+                sink = sys.checkpoint();
+                checkpointNanos = System.nanoTime() - start;
+            }
+            return compacted;
+        }
+
+        Cinema_FullSystem.BookingSystem loaded() throws IOException {
+            Cinema_FullSystem.BookingSystem sys = open();
+            sys.loadMovies();
+            sys.loadBookingsFromFile(batch -> { });
+            return sys;
+        }
+    }
+
+    // One timed operation and the fixture it runs against; each call covers
+    // perCall operations. Public, like scenario(String, int, boolean), for the
+    // JMH benchmarks, which cannot be in the default package.
+    public static final class Scenario implements Callable<Object>, Closeable {
+        public final int perCall;
+        private final Callable<Object> op;
+        private final Closeable[] fixture;
+
+        Scenario(int perCall, Callable<Object> op, Closeable... fixture) {
+            this.perCall = perCall;
+            this.op = op;
+            this.fixture = fixture;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            return op.call();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Closeable f : fixture) f.close();
+        }
+    }
+
+    // The named scenario on a data set of its own, deleted again on close.
+    public static Scenario scenario(String name, int size, boolean binary) throws Exception {
+        Path dir = Files.createTempDirectory("cinema-bench");
+        try {
+            Scenario s = scenario(name, DataSet.write(dir, size, binary));
+            return new Scenario(s.perCall, s, s, () -> deleteTree(dir));
+        } catch (Exception ex) {
+            deleteTree(dir);
+            throw ex;
+        }
+    }
+
+    static Scenario scenario(String name, DataSet data) throws Exception {
+        switch (name) {
+            case "load":
+                return new Scenario(1, () -> {
+                    try (Cinema_FullSystem.BookingSystem sys = data.open()) {
+                        return sys.loadBookingsFromFile(batch -> { });
+                    }
+                });
+            case "restart": {
+                // Startup reads the manifest and the hot file instead of replaying
+                // every record.
+                Path compacted = data.compacted();
+                return new Scenario(1, () -> {
+                    try (Cinema_FullSystem.BookingSystem sys = CinemaBenchmark.open(compacted, data.binary)) {
+                        return sys.loadBookingsFromFile(batch -> { });
+                    }
+                });
+            }
+            case "append": {
+                Cinema_FullSystem.BookingSystem sys = data.copy(name);
+                Random rnd = new Random(data.size);
+                return new Scenario(BATCH, () -> {
+                    java.util.List<CompletableFuture<Long>> writes = new ArrayList<>(BATCH);
+                    for (int i = 0; i < BATCH; i++) writes.add(sys.appendBookingToFile(booking(rnd, i)));
+                    for (CompletableFuture<Long> w : writes) w.get();
+                    return writes.size();
+                }, sys);
+            }
+            case "save": {
+                Cinema_FullSystem.BookingSystem sys = data.copy(name);
+                Random rnd = new Random(data.size);
+                return new Scenario(BATCH, () -> {
+                    java.util.List<Cinema_FullSystem.Booking> pending = new ArrayList<>(BATCH);
+                    for (int i = 0; i < BATCH; i++) pending.add(booking(rnd, i));
+                    return sys.saveAllBookingsToFile(pending);
+                }, sys);
+            }
+            case "occupancy": {
+                Cinema_FullSystem.BookingSystem sys = data.loaded();
+                java.util.List<Cinema_FullSystem.Screening> screenings = new ArrayList<>(sys.schedule.all());
+                return new Scenario(BATCH, () -> {
+                    // What SeatSelectionDialog does per opening: look up the screening,
+                    // snapshot its occupancy and walk the hall to decide which buttons
+                    // are disabled.
+                    int free = 0;
+                    for (int i = 0; i < BATCH; i++) {
+                        Cinema_FullSystem.Screening listed = screenings.get(i % screenings.size());
+                        Cinema_FullSystem.Screening s = sys.occupancy.screening(listed.movie, listed.key);
+                        long[] occupied = s.occupied();
+                        for (int cell = 0; cell < s.hall.cells(); cell++) {
+                            if (s.hall.isSeat(cell) && (occupied[cell >>> 6] & (1L << cell)) == 0) free++;
+                        }
+                    }
+                    return free;
+                }, sys);
+            }
+            case "group": {
+                Cinema_FullSystem.BookingSystem sys = data.loaded();
+                java.util.List<Cinema_FullSystem.Screening> screenings = new ArrayList<>(sys.schedule.all());
+                // What Group Booking does before the hold: pick a block for a party of
+                // 1-20 against the screening's current seat map.
+                return new Scenario(BATCH, () -> {
+                    int found = 0;
+                    for (int i = 0; i < BATCH; i++) {
+                        if (screenings.get(i % screenings.size()).bestBlock(1 + i % 20) != null) found++;
+                    }
+                    return found;
+                }, sys);
+            }
+            case "checkout": {
+                Cinema_FullSystem.BookingSystem sys = data.loaded();
+                java.util.List<Cinema_FullSystem.Screening> screenings = new ArrayList<>(sys.schedule.all());
+                // Quotes 1-6 seat blocks across the scheduled screenings, reusing one Quote.
+                long[][] blocks = new long[screenings.size()][];
+                for (int i = 0; i < blocks.length; i++) {
+                    Cinema_FullSystem.Hall hall = screenings.get(i).hall;
+                    blocks[i] = new long[hall.words()];
+                    for (int cell = 0, n = 0; cell < hall.cells() && n < 1 + i % 6; cell++) {
+                        if (hall.isSeat(cell)) {
+                            blocks[i][cell >>> 6] |= 1L << cell;
+                            n++;
+                        }
+                    }
+                }
+                Cinema_FullSystem.PricingEngine.Quote quote = sys.pricing.newQuote();
+                return new Scenario(BATCH, () -> {
+                    long sum = 0;
+                    for (int i = 0; i < BATCH; i++) {
+                        int s = i % blocks.length;
+                        Cinema_FullSystem.Screening screening = screenings.get(s);
+                        sys.pricing.quote(sys.findMovie(screening.movie), screening, blocks[s], null, quote);
+                        sum += quote.total;
+                    }
+                    return sum;
+                }, sys);
+            }
+            case "receipts": {
+                Cinema_FullSystem.BookingSystem sys = data.loaded();
+                java.util.List<Cinema_FullSystem.Booking> all = sys.store.snapshot();
+                java.util.List<Cinema_FullSystem.Booking> selection = new ArrayList<>(RECEIPTS);
+                for (int i = 0; i < RECEIPTS; i++) selection.add(all.get(i % all.size()));
+                Path zip = data.dir.resolve("receipts-" + data.size + ".zip");
+                return new Scenario(RECEIPTS, () -> sys.exportReceipts(selection, zip, null), sys);
+            }
+            case "catalog": {
+                // A catalog reload builds every derived view (rating order, title and
+                // genre indexes) once; the GUI and service only read the snapshot after.
+                Random rnd = new Random(data.size);
+                java.util.List<Cinema_FullSystem.Movie> movies = new ArrayList<>(data.size);
+                for (int i = 0; i < data.size; i++) {
+                    movies.add(new Cinema_FullSystem.Movie("Movie " + i, "Genre " + i % 20, Math.round(rnd.nextDouble() * 100) / 10.0,
+                            Arrays.asList(SHOWTIMES[i % SHOWTIMES.length]), (150 + i % 100) * 100L));
+                }
+                Cinema_FullSystem.MovieCatalog catalog = new Cinema_FullSystem.MovieCatalog();
+                return new Scenario(1, () -> {
+                    catalog.set(movies);
+                    return catalog.snapshot().byRating.get(0);
+                });
+            }
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + name);
+        }
+    }
+
+    static Cinema_FullSystem.BookingSystem open(Path csv, boolean binary) {
+        return new Cinema_FullSystem.BookingSystem(csv, binary, Cinema_FullSystem.BookingJournal.FsyncPolicy.NEVER);
+    }
+
+    // Prints the time per operation; each op call covers perCall operations.
+    void bench(String name, int size, int perCall, Callable<Object> op) throws Exception {
+        for (int i = 0; i < warmup; i++) sink = op.call();
+        long min = Long.MAX_VALUE, max = 0, total = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink = op.call();
+            long elapsed = System.nanoTime() - start;
+            min = Math.min(min, elapsed);
+            max = Math.max(max, elapsed);
+            total += elapsed;
+        }
+        System.out.printf(Locale.US, "%-14s %10d %14s %14s %14s%n", name, size,
+                time(total / iterations / perCall), time(min / perCall), time(max / perCall));
+    }
+
+    static String time(long nanos) {
+        if (nanos >= 1_000_000) return String.format(Locale.US, "%.2f ms/op", nanos / 1e6);
+        if (nanos >= 1_000) return String.format(Locale.US, "%.2f us/op", nanos / 1e3);
+        return nanos + " ns/op";
+    }
+
+    static void writeSynthetic(Path file, Cinema_FullSystem.BookingFormat format, int size) throws IOException {
+        Random rnd = new Random(42);
+        format.reset();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            out.write(format.header());
+            for (int i = 0; i < size; i++) out.write(format.encode(booking(rnd, i)));
+        }
+    }
+
+    static Cinema_FullSystem.Booking booking(Random rnd, int i) {
+        int movie = rnd.nextInt(MOVIES.length);
+        String show = Cinema_FullSystem.Screening.key(FIRST_DAY.plusDays(i % DAYS), SHOWTIMES[movie][rnd.nextInt(2)], HALLS[movie]);
+        int count = 1 + rnd.nextInt(4);
+        java.util.List<String> seats = new ArrayList<>(count);
+        int first = rnd.nextInt(Cinema_FullSystem.OccupancyIndex.ROWS * Cinema_FullSystem.OccupancyIndex.COLS - count);
+        for (int s = 0; s < count; s++) seats.add(Cinema_FullSystem.OccupancyIndex.seatName(first + s));
+        String ts = String.format(Locale.US, "2026-%02d-%02d %02d:%02d:%02d",
+                1 + i / 2_000_000 % 12, 1 + i / 80_000 % 28, i / 3600 % 24, i / 60 % 60, i % 60);
+        return new Cinema_FullSystem.Booking(ts, "Customer " + rnd.nextInt(100_000), "09" + (100_000_000 + rnd.nextInt(900_000_000)),
+                MOVIES[movie], show, seats, 16800L * count);
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        Files.walk(dir).sorted(Comparator.reverseOrder()).forEach(p -> {
+            try {
+                Files.delete(p);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+    }
+}
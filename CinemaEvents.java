@@ -0,0 +1,43 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Flight Recorder events for the operations Cinema_FullSystem times. Needs JDK 11
+// or later; Cinema_FullSystem looks this class up by name and runs without it.
+//
+//   javac -encoding UTF-8 Cinema_FullSystem.java CinemaEvents.java
+//   java -XX:StartFlightRecording=filename=cinema.jfr Cinema_FullSystem
+//   jfr print --events cinema.Operation cinema.jfr
+public class CinemaEvents implements Cinema_FullSystem.Metrics.Listener {
+    @Name("cinema.Operation")
+    @Label("Cinema Operation")
+    @Category("Cinema")
+    @Description("A timed booking operation: load, seatMap, checkout, append, write, flush, export or checkpoint")
+    @StackTrace(false)
+    static class Operation extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    // Asked on every timed operation; an event instance only answers whether
+    // the event type is enabled, so one is kept for that instead of allocating.
+    private final Operation probe = new Operation();
+
+    // Committed when the operation ends, so the event time is its end.
+    @Override
+    public void timed(String operation, long nanos) {
+        if (!probe.isEnabled()) return;
+        Operation e = new Operation();
+        e.operation = operation;
+        e.elapsed = nanos;
+        e.commit();
+    }
+}
@@ -1,23 +1,81 @@
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import javax.imageio.ImageIO;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 
 public class Cinema_FullSystem extends JFrame {
     private JPanel sidebar;
     private JTable table;
     private DefaultTableModel model;
-    private java.util.List<Movie> movies = new ArrayList<>();
-    private java.util.List<Booking> bookings = new ArrayList<>();
-    private final Path BOOKINGS_FILE = Paths.get(System.getProperty("user.home"), "cinema_bookings.csv");
-    private BufferedImage popcornImage = null;
+    private static final boolean BINARY_STORE = "binary".equalsIgnoreCase(System.getProperty("cinema.bookings.format", "text"));
+    private final BookingSystem system = new BookingSystem(Paths.get(System.getProperty("user.home"), "cinema_bookings.csv"), BINARY_STORE);
+    // The rows the table shows, in table order; row indexes map straight into it.
+    private java.util.List<Movie> shown = Collections.emptyList();
+    private boolean sortedByRating = false;
+    private final BookingStore store = system.store;
+    private final Set<Booking> dirty = new LinkedHashSet<>();
+    // Appends still on their way to disk; Save All waits for these instead of
+    // writing the booking a second time.
+    private final Map<Booking, CompletableFuture<Long>> writing = new HashMap<>();
+    private final OccupancyIndex occupancy = system.occupancy;
+    private final SeatReservations reservations = system.reservations;
+    private final Path BOOKINGS_FILE = system.bookingsFile;
+    private final BackgroundTasks tasks = new BackgroundTasks(Math.max(2, Runtime.getRuntime().availableProcessors()), 256);
+    private boolean bookingsLoaded = false;
+    private SalesDashboard dashboard;
+    private static final Color BUTTON_IDLE = new Color(0, 0, 0, 170);
+    private static final Color BUTTON_HOVER = new Color(255, 40, 40);
 
     public Cinema_FullSystem() {
         setTitle("🎬 Movie Booking System");
@@ -25,15 +83,18 @@ public class Cinema_FullSystem extends JFrame {
         setLocationRelativeTo(null);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
+        Runtime.getRuntime().addShutdownHook(new Thread(system::close, "booking-journal-close"));
+        system.startMetrics();
 
-        loadMovies();
-        loadBookingsFromFile();
+        system.loadMovies();
+        system.catalog.addListener(snapshot -> SwingUtilities.invokeLater(this::refreshMovieTable));
+        system.watchMovies();
 
         JPanel mainPanel = new JPanel(new BorderLayout());
         mainPanel.setBackground(Color.BLACK);
         add(mainPanel, BorderLayout.CENTER);
 
-        sidebar = new PopcornPanel();
+        sidebar = new PopcornPanel(tasks);
         sidebar.setPreferredSize(new Dimension(320, 650));
         sidebar.setLayout(new BoxLayout(sidebar, BoxLayout.Y_AXIS));
         sidebar.setBorder(new EmptyBorder(20, 20, 20, 20));
@@ -45,8 +106,12 @@ public class Cinema_FullSystem extends JFrame {
         sidebar.add(Box.createVerticalStrut(15));
         sidebar.add(makeButton("💺 Book Seats", this::bookSeats));
         sidebar.add(Box.createVerticalStrut(15));
+        sidebar.add(makeButton("👥 Group Booking", this::bookGroup));
+        sidebar.add(Box.createVerticalStrut(15));
         sidebar.add(makeButton("📄 View Past Bookings", this::viewPastBookings));
         sidebar.add(Box.createVerticalStrut(15));
+        sidebar.add(makeButton("📊 Sales Dashboard", this::viewSalesDashboard));
+        sidebar.add(Box.createVerticalStrut(15));
         sidebar.add(makeButton("🧾 Save All & Export CSV", this::exportCsv));
         sidebar.add(Box.createVerticalStrut(15));
         sidebar.add(makeButton("❌ Exit", () -> System.exit(0)));
@@ -73,6 +138,54 @@ public class Cinema_FullSystem extends JFrame {
         refreshMovieTable();
 
         setVisible(true);
+        startLoadingBookings();
+    }
+
+    private void startLoadingBookings() {
+        String title = getTitle();
+        setTitle(title + " — loading bookings…");
+        EdtBatcher<Integer> progress = new EdtBatcher<>(batch -> {
+            if (!bookingsLoaded) setTitle(title + " — loading bookings… " + store.size());
+        });
+        tasks.run(() -> system.loadBookingsFromFile(batch -> progress.accept(Collections.singletonList(batch.size()))), count -> {
+            bookingsLoaded = true;
+            setTitle(title);
+            system.startCheckpoints();
+            startReplication();
+            startHttpServer();
+        }, ex -> {
+            ex.printStackTrace();
+            bookingsLoaded = true;
+            setTitle(title);
+            JOptionPane.showMessageDialog(this, "Failed to load bookings: " + ex.getMessage());
+            startHttpServer();
+        });
+    }
+
+    // -Dcinema.http.port also serves this window's movies, holds and bookings
+    // over HTTP.
+    private void startHttpServer() {
+        Integer port = Integer.getInteger("cinema.http.port");
+        if (port == null) return;
+        try {
+            BookingServer server = BookingServer.start(system, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "booking-server-stop"));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Failed to start booking service on port " + port + ": " + ex.getMessage());
+        }
+    }
+
+    // Standbys can follow this window's sales when -Dcinema.replication.port is set.
+    private void startReplication() {
+        if (Integer.getInteger("cinema.replication.port") == null) return;
+        tasks.run(() -> {
+            system.startPrimary();
+            return null;
+        }, started -> { }, ex -> {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Failed to start replication: " + ex.getMessage());
+        });
     }
 
     private JButton makeButton(String text, Runnable action) {
@@ -80,18 +193,18 @@ public class Cinema_FullSystem extends JFrame {
         btn.setAlignmentX(Component.CENTER_ALIGNMENT);
         btn.setFont(new Font("Segoe UI", Font.BOLD, 16));
         btn.setForeground(Color.WHITE);
-        btn.setBackground(new Color(0, 0, 0, 170));
+        btn.setBackground(BUTTON_IDLE);
         btn.setFocusPainted(false);
         btn.setBorder(BorderFactory.createLineBorder(Color.WHITE, 2));
         btn.setMaximumSize(new Dimension(260, 48));
 
         btn.addMouseListener(new java.awt.event.MouseAdapter() {
             public void mouseEntered(java.awt.event.MouseEvent evt) {
-                btn.setBackground(new Color(255, 40, 40));
+                btn.setBackground(BUTTON_HOVER);
             }
 
             public void mouseExited(java.awt.event.MouseEvent evt) {
-                btn.setBackground(new Color(0, 0, 0, 170));
+                btn.setBackground(BUTTON_IDLE);
             }
         });
 
@@ -99,25 +212,18 @@ public class Cinema_FullSystem extends JFrame {
         return btn;
     }
 
-    private void loadMovies() {
-        movies.clear();
-        movies.add(new Movie("Avengers: Endgame", "Action", 9.1, Arrays.asList("2:00 PM", "7:00 PM"), 240.00));
-        movies.add(new Movie("Inception", "Sci-Fi", 8.8, Arrays.asList("12:00 PM", "9:00 PM"), 200.00));
-        movies.add(new Movie("Joker", "Drama", 8.5, Arrays.asList("6:30 PM", "10:00 PM"), 180.00));
-        movies.add(new Movie("Moana 2", "Animation", 7.9, Arrays.asList("11:00 AM", "5:00 PM"), 150.00));
-    }
-
     private void refreshMovieTable() {
+        MovieCatalog.Snapshot catalog = system.catalog.snapshot();
+        shown = sortedByRating ? catalog.byRating : catalog.all;
         model.setRowCount(0);
-        DecimalFormat df = new DecimalFormat("0.00");
-        for (Movie m : movies) {
+        for (Movie m : shown) {
             String show = m.showtimes.isEmpty() ? "-" : m.showtimes.get(0);
-            model.addRow(new Object[]{m.title, m.genre, String.valueOf(m.rating), show, df.format(m.price)});
+            model.addRow(new Object[]{m.title, m.genre, String.valueOf(m.rating), show, Money.format(m.price)});
         }
     }
 
     private void sortByRating() {
-        movies.sort((a, b) -> Double.compare(b.rating, a.rating));
+        sortedByRating = true;
         refreshMovieTable();
         JOptionPane.showMessageDialog(this, "Movies sorted by rating (highest → lowest)");
     }
@@ -128,391 +234,5598 @@ public class Cinema_FullSystem extends JFrame {
             JOptionPane.showMessageDialog(this, "Select a movie in the table to view details.");
             return;
         }
-        Movie m = movies.get(sel);
+        Movie m = shown.get(sel);
         StringBuilder sb = new StringBuilder();
         sb.append("Title: ").append(m.title).append('\n');
         sb.append("Genre: ").append(m.genre).append('\n');
         sb.append("Rating: ").append(m.rating).append('\n');
         sb.append("Showtimes: ").append(String.join(", ", m.showtimes)).append('\n');
-        sb.append("Price per seat: ").append(new DecimalFormat("0.00").format(m.price)).append('\n');
+        sb.append("Hall: ").append(m.hall != null ? m.hall : system.schedule.defaultHall().name).append('\n');
+        sb.append("Price per seat: ");
+        Money.append(sb, m.price).append('\n');
         JOptionPane.showMessageDialog(this, sb.toString(), "Movie Details", JOptionPane.INFORMATION_MESSAGE);
     }
 
     private void bookSeats() {
+        if (!bookingsLoaded) {
+            JOptionPane.showMessageDialog(this, "Booking history is still loading. Please try again in a moment.");
+            return;
+        }
+        Movie movie = chooseMovie();
+        if (movie == null) return;
+        Screening screening = chooseScreening(movie);
+        if (screening == null) return;
+
+        SeatSelectionDialog seatDialog = new SeatSelectionDialog(this, movie, screening);
+        seatDialog.setVisible(true);
+
+        java.util.List<String> selectedSeats = seatDialog.getSelectedSeats();
+        if (selectedSeats.isEmpty()) {
+            return;
+        }
+
+        SeatReservations.Hold hold = reservations.hold(screening, selectedSeats, SeatReservations.HOLD_TTL_MS);
+        if (hold == null) {
+            JOptionPane.showMessageDialog(this, "Some of the selected seats were just taken. Please choose again.");
+            return;
+        }
+        checkout(movie, screening, selectedSeats, hold);
+    }
+
+    // Seats a party together: the system picks the block and the cashier confirms it.
+    private void bookGroup() {
+        if (!bookingsLoaded) {
+            JOptionPane.showMessageDialog(this, "Booking history is still loading. Please try again in a moment.");
+            return;
+        }
+        Movie movie = chooseMovie();
+        if (movie == null) return;
+        Screening screening = chooseScreening(movie);
+        if (screening == null) return;
+
+        String size = JOptionPane.showInputDialog(this, "How many seats? (" + screening.free() + " free)", "Group Booking",
+                JOptionPane.PLAIN_MESSAGE);
+        if (size == null) return;
+        int n;
+        try {
+            n = Integer.parseInt(size.trim());
+        } catch (NumberFormatException ex) {
+            n = 0;
+        }
+        if (n <= 0) {
+            JOptionPane.showMessageDialog(this, "Please enter a number of seats.");
+            return;
+        }
+        SeatReservations.Hold hold = reservations.holdBlock(screening, n, SeatReservations.HOLD_TTL_MS);
+        if (hold == null) {
+            JOptionPane.showMessageDialog(this, "There is no block of " + n + " free seats together in " + screening.hall.name + ".");
+            return;
+        }
+        java.util.List<String> seats = hold.seatNames();
+        int answer = JOptionPane.showConfirmDialog(this, "Seats " + String.join(", ", seats) + " in " + screening.hall.name + ".\nBook them?",
+                "Group Booking", JOptionPane.OK_CANCEL_OPTION);
+        if (answer != JOptionPane.OK_OPTION) {
+            reservations.release(hold);
+            return;
+        }
+        checkout(movie, screening, seats, hold);
+    }
+
+    private Movie chooseMovie() {
         int sel = table.getSelectedRow();
         Movie movie = null;
-        if (sel != -1) movie = movies.get(sel);
+        if (sel != -1) movie = shown.get(sel);
 
         if (movie == null) {
 
-            String[] options = movies.stream().map(m -> m.title).toArray(String[]::new);
+            String[] options = shown.stream().map(m -> m.title).toArray(String[]::new);
+            if (options.length == 0) return null;
             String chosen = (String) JOptionPane.showInputDialog(this, "Select a movie to book:", "Choose Movie",
                     JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
-            if (chosen == null) return;
-            for (Movie m : movies) if (m.title.equals(chosen)) movie = m;
+            if (chosen == null) return null;
+            movie = system.findMovie(chosen);
         }
+        return movie;
+    }
 
-        String show = (String) JOptionPane.showInputDialog(this, "Select showtime:", "Showtime",
-                JOptionPane.PLAIN_MESSAGE, null, movie.showtimes.toArray(new String[0]), movie.showtimes.get(0));
-        if (show == null) return;
-
-        SeatSelectionDialog seatDialog = new SeatSelectionDialog(this, movie, show);
-        seatDialog.setVisible(true);
-
-        java.util.List<String> selectedSeats = seatDialog.getSelectedSeats();
-        if (selectedSeats.isEmpty()) {
-            return;
+    private Screening chooseScreening(Movie movie) {
+        java.util.List<Screening> upcoming = system.schedule.upcoming(movie.title, LocalDateTime.now());
+        if (upcoming.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No upcoming screenings of " + movie.title + ".");
+            return null;
         }
+        String[] shows = upcoming.stream().map(s -> s.key).toArray(String[]::new);
+        String show = (String) JOptionPane.showInputDialog(this, "Select screening:", "Showtime",
+                JOptionPane.PLAIN_MESSAGE, null, shows, shows[0]);
+        if (show == null) return null;
+        return system.schedule.find(movie.title, show);
+    }
 
-        CheckoutDialog checkout = new CheckoutDialog(this, movie, show, selectedSeats);
+    private void checkout(Movie movie, Screening screening, java.util.List<String> selectedSeats, SeatReservations.Hold hold) {
+        CheckoutDialog checkout = new CheckoutDialog(this, movie, screening, selectedSeats);
         checkout.setVisible(true);
         Booking completed = checkout.getCompletedBooking();
-        if (completed != null) {
-            bookings.add(completed);
-            appendBookingToFile(completed);
-            JOptionPane.showMessageDialog(this, "Booking completed! Receipt will be shown.");
-            ReceiptDialog r = new ReceiptDialog(this, completed);
-            r.setVisible(true);
+        if (completed == null) {
+            reservations.release(hold);
+            return;
+        }
+        CompletableFuture<Long> write = system.commit(hold, completed);
+        if (write == null) {
+            JOptionPane.showMessageDialog(this, "Your seat hold expired and the seats were sold to someone else.");
+            return;
         }
+        dirty.add(completed);
+        trackWrite(completed, write);
+        JOptionPane.showMessageDialog(this, "Booking completed! Receipt will be shown.");
+        ReceiptDialog r = new ReceiptDialog(this, completed);
+        r.setVisible(true);
     }
 
+    // Archived bookings are only read from disk the first time history is shown.
     private void viewPastBookings() {
-        new PastBookingsDialog(this, bookings).setVisible(true);
+        if (system.historyLoaded()) {
+            new PastBookingsDialog(this, store).setVisible(true);
+            return;
+        }
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        tasks.run(system::loadHistory, count -> {
+            setCursor(Cursor.getDefaultCursor());
+            new PastBookingsDialog(this, store).setVisible(true);
+        }, ex -> {
+            setCursor(Cursor.getDefaultCursor());
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Failed to load archived bookings: " + ex.getMessage());
+            new PastBookingsDialog(this, store).setVisible(true);
+        });
+    }
+
+    private void viewSalesDashboard() {
+        if (dashboard == null || !dashboard.isDisplayable()) dashboard = new SalesDashboard(this, system.sales);
+        dashboard.setVisible(true);
+        dashboard.toFront();
     }
 
     private void exportCsv() {
-        try {
-            saveAllBookingsToFile();
-            JOptionPane.showMessageDialog(this, "All bookings saved to: " + BOOKINGS_FILE.toString());
-        } catch (IOException ex) {
+        // With a checkpoint the journal only holds what came after it.
+        if (!Files.exists(BOOKINGS_FILE) && !system.hasCheckpoint()) {
+            exportAllInBackground();
+            return;
+        }
+        java.util.List<Booking> pending = new ArrayList<>(dirty.size());
+        java.util.List<CompletableFuture<Long>> inFlight = new ArrayList<>();
+        for (Booking b : dirty) {
+            CompletableFuture<Long> w = writing.get(b);
+            if (w != null) inFlight.add(w);
+            else pending.add(b);
+        }
+        tasks.run(() -> {
+            for (CompletableFuture<Long> w : inFlight) w.join();
+            return system.saveAllBookingsToFile(pending);
+        }, saved -> {
+            dirty.removeAll(pending);
+            exportFullCsv("All bookings saved to: " + BOOKINGS_FILE.toString()
+                    + (saved > 0 ? "\n(" + saved + " unsaved booking(s) written)" : ""));
+        }, ex -> {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(this, "Failed to save bookings: " + ex.getMessage());
-        }
+        });
+    }
+
+    // The journal is not a complete CSV once checkpoints run, so Save All also
+    // writes every booking to a separate export file.
+    private void exportFullCsv(String saved) {
+        tasks.run(system::exportCsv, n -> {
+            JOptionPane.showMessageDialog(this, saved + "\nExported " + n + " booking(s) to: " + system.exportFile);
+        }, ex -> {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, saved + "\nFailed to export bookings: " + ex.getMessage());
+        });
     }
 
-    private void loadBookingsFromFile() {
-    bookings.clear();
-    if (!Files.exists(BOOKINGS_FILE)) return;
-    try (BufferedReader br = Files.newBufferedReader(BOOKINGS_FILE)) {
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] parts = line.split("\\|", -1);
-            if (parts.length >= 7) {
-                Booking b = new Booking(parts[0], parts[1], parts[2], parts[3], parts[4],
-                                        Arrays.asList(parts[5].split(",")),
-                                        Double.parseDouble(parts[6]));
-                bookings.add(b);
+    private void exportAllInBackground() {
+        int total = store.size();
+        ProgressMonitor monitor = new ProgressMonitor(this, "Exporting bookings to " + BOOKINGS_FILE, "", 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+        SwingWorker<java.util.List<Booking>, Void> worker = new SwingWorker<java.util.List<Booking>, Void>() {
+            @Override
+            protected java.util.List<Booking> doInBackground() throws Exception {
+                return system.exportAll(this::setProgress).get();
             }
-        }
-    } catch (Exception ex) {
-        ex.printStackTrace();
+
+            @Override
+            protected void done() {
+                monitor.close();
+                try {
+                    dirty.removeAll(get());
+                    exportFullCsv("All bookings saved to: " + BOOKINGS_FILE.toString());
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(Cinema_FullSystem.this, "Failed to save bookings: " + cause.getMessage());
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                int percent = (Integer) e.getNewValue();
+                monitor.setProgress(percent);
+                monitor.setNote(percent + "% of " + total + " bookings");
+            }
+        });
+        tasks.execute(worker);
     }
-}
 
-    private void appendBookingToFile(Booking b) {
-        try {
-            Files.createDirectories(BOOKINGS_FILE.getParent());
-            try (BufferedWriter bw = Files.newBufferedWriter(BOOKINGS_FILE, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-                bw.write(String.join("|", b.timestamp, b.name, b.contact, b.movie, b.showtime, String.join(",", b.seats), String.format(Locale.US, "%.2f", b.total)));
-                bw.newLine();
+    private void trackWrite(Booking b, CompletableFuture<Long> write) {
+        writing.put(b, write);
+        write.whenComplete((position, ex) -> SwingUtilities.invokeLater(() -> {
+            writing.remove(b);
+            if (ex == null) {
+                dirty.remove(b);
+                return;
             }
-        } catch (Exception ex) {
             ex.printStackTrace();
-        }
+            JOptionPane.showMessageDialog(this, "Booking could not be written to disk yet; it will be retried on Save All.");
+        }));
     }
 
-    private void saveAllBookingsToFile() throws IOException {
-        Files.createDirectories(BOOKINGS_FILE.getParent());
-        try (BufferedWriter bw = Files.newBufferedWriter(BOOKINGS_FILE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            for (Booking b : bookings) {
-                bw.write(String.join("|", b.timestamp, b.name, b.contact, b.movie, b.showtime, String.join(",", b.seats), String.format(Locale.US, "%.2f", b.total)));
-                bw.newLine();
-            }
+    // Money is a long count of cents everywhere: prices, quotes, booking files
+    // and sales totals. Decimal text only appears at the edges.
+    static final class Money {
+        private Money() {
         }
-    }
 
+        static StringBuilder append(StringBuilder sb, long cents) {
+            if (cents < 0) sb.append('-');
+            long abs = Math.abs(cents);
+            sb.append(abs / 100).append('.');
+            long fraction = abs % 100;
+            if (fraction < 10) sb.append('0');
+            return sb.append(fraction);
+        }
 
-    class Movie {
-        String title;
-        String genre;
-        double rating;
-        java.util.List<String> showtimes;
-        double price;
+        static String format(long cents) {
+            return append(new StringBuilder(16), cents).toString();
+        }
 
-        Movie(String t, String g, double r, java.util.List<String> s, double p) {
-            title = t; genre = g; rating = r; showtimes = new ArrayList<>(s); price = p;
+        // Exact decimal parse; digits past the second place round half up.
+        static long parse(String text) {
+            String s = text.trim();
+            int i = 0;
+            boolean negative = s.startsWith("-");
+            if (negative || s.startsWith("+")) i++;
+            long whole = 0;
+            int digits = 0;
+            // ASCII digits only: Character.isDigit also accepts other scripts' digits,
+            // which the arithmetic below would turn into garbage amounts.
+            for (; i < s.length() && digit(s.charAt(i)); i++, digits++) {
+                if (digits == 16) throw new NumberFormatException("amount too large: " + text);
+                whole = whole * 10 + (s.charAt(i) - '0');
+            }
+            long fraction = 0;
+            int places = 0;
+            boolean roundUp = false;
+            if (i < s.length() && s.charAt(i) == '.') {
+                for (i++; i < s.length() && digit(s.charAt(i)); i++, places++) {
+                    if (places < 2) fraction = fraction * 10 + (s.charAt(i) - '0');
+                    else if (places == 2) roundUp = s.charAt(i) >= '5';
+                }
+            }
+            if (i != s.length() || digits + places == 0) throw new NumberFormatException("not an amount: " + text);
+            if (places == 1) fraction *= 10;
+            long cents = whole * 100 + fraction + (roundUp ? 1 : 0);
+            return negative ? -cents : cents;
         }
-    }
 
-    class Booking {
-        String timestamp;
-        String name;
-        String contact;
-        String movie;
-        String showtime;
-        java.util.List<String> seats;
-        double total;
+        private static boolean digit(char c) {
+            return c >= '0' && c <= '9';
+        }
 
-        Booking(String ts, String n, String c, String m, String s, java.util.List<String> seats, double t) {
-            timestamp = ts; name = n; contact = c; movie = m; showtime = s; this.seats = new ArrayList<>(seats); total = t;
+        // cents * basisPoints / 10000, rounded half away from zero.
+        static long scale(long cents, long basisPoints) {
+            long product = cents * basisPoints;
+            return product >= 0 ? (product + 5000) / 10000 : -((-product + 5000) / 10000);
         }
     }
 
-    class SeatSelectionDialog extends JDialog {
-        private java.util.List<String> selectedSeats = new ArrayList<>();
-        private java.util.Set<String> occupied = new HashSet<>();
-
-        SeatSelectionDialog(JFrame owner, Movie movie, String showtime) {
-            super(owner, "Select Seats - " + movie.title + " (" + showtime + ")", true);
-            setSize(700, 500);
-            setLocationRelativeTo(owner);
-            setLayout(new BorderLayout());
+    // Prices seats for one screening in cents. Each seat costs the movie's price
+    // scaled by its seat category and by the time band the screening starts in,
+    // rounded per seat. The larger of the code and group discounts comes off the
+    // subtotal, and every tax rule is charged on what remains. Rates are
+    // percentages (decimals allowed) read from a properties file:
+    //   tax.VAT=12                 one line per tax
+    //   category.PREMIUM=125       of the movie's price, per seat category
+    //   time.10:00-16:59=80        of the price, by screening start time
+    //   discount.code.STUDENT=20   off, for that code at checkout
+    //   discount.group.10=15       off, for 10 or more seats
+    // Without tax lines the tax is 12% VAT (tax.VAT=0 turns it off), and
+    // categories keep their built-in rates unless overridden.
+    static final class PricingEngine {
+        // Filled in place by quote(), so one instance can be reused per thread.
+        static final class Quote {
+            int seats;
+            long subtotal;
+            long discount;
+            long tax;
+            long total;
+            final long[] taxes;
 
-            for (Booking b : bookings) {
-                if (b.movie.equals(movie.title) && b.showtime.equals(showtime)) occupied.addAll(b.seats);
+            Quote(int taxRules) {
+                taxes = new long[taxRules];
             }
+        }
 
-            JPanel center = new JPanel();
-            center.setLayout(new BoxLayout(center, BoxLayout.Y_AXIS));
-            center.setBorder(new EmptyBorder(12, 12, 12, 12));
-
-            JLabel info = new JLabel("Select seats (click to toggle). Occupied seats are disabled.");
-            center.add(info);
-            center.add(Box.createVerticalStrut(10));
-
-            JPanel grid = new JPanel(new GridLayout(6, 8, 6, 6));
+        private final int[] categoryRates = new int[SeatCategory.values().length];
+        private final int[] bandFrom;
+        private final int[] bandTo;
+        private final int[] bandRates;
+        private final String[] taxNames;
+        private final int[] taxRates;
+        private final Map<String, Integer> codeRates = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        // Largest minimum first.
+        private final int[] groupMin;
+        private final int[] groupRates;
 
-            for (char r = 'A'; r <= 'F'; r++) {
-                for (int c = 1; c <= 8; c++) {
-                    String seat = r + String.valueOf(c);
-                    JToggleButton tb = new JToggleButton(seat);
-                    tb.setFocusPainted(false);
-                    if (occupied.contains(seat)) {
-                        tb.setEnabled(false);
-                        tb.setSelected(true);
-                        tb.setBackground(Color.GRAY);
-                    }
-                    tb.addItemListener(ev -> {
-                        if (!tb.isEnabled()) return;
-                        if (tb.isSelected()) {
-                            selectedSeats.add(seat);
-                        } else {
-                            selectedSeats.remove(seat);
-                        }
-                    });
-                    grid.add(tb);
+        PricingEngine(Properties config) {
+            for (SeatCategory c : SeatCategory.values()) {
+                categoryRates[c.ordinal()] = rate(config.getProperty("category." + c.name(), Integer.toString(c.percent)));
+            }
+            java.util.List<String> names = new ArrayList<>(config.stringPropertyNames());
+            Collections.sort(names);
+            IntList from = new IntList(), to = new IntList(), bands = new IntList();
+            java.util.List<String> taxes = new ArrayList<>();
+            IntList taxRates = new IntList();
+            TreeMap<Integer, Integer> groups = new TreeMap<>(Collections.reverseOrder());
+            for (String key : names) {
+                String value = config.getProperty(key);
+                if (key.startsWith("tax.")) {
+                    taxes.add(key.substring(4));
+                    taxRates.add(rate(value));
+                } else if (key.startsWith("time.")) {
+                    String[] range = key.substring(5).split("-");
+                    if (range.length != 2) throw new IllegalArgumentException(key + ": expected time.HH:mm-HH:mm");
+                    from.add(minuteOfDay(range[0]));
+                    to.add(minuteOfDay(range[1]));
+                    bands.add(rate(value));
+                } else if (key.startsWith("discount.code.")) {
+                    codeRates.put(key.substring(14), rate(value));
+                } else if (key.startsWith("discount.group.")) {
+                    groups.put(Integer.parseInt(key.substring(15)), rate(value));
+                } else if (!key.startsWith("category.")) {
+                    throw new IllegalArgumentException("unknown pricing setting " + key);
                 }
             }
+            if (taxes.isEmpty()) {
+                taxes.add("VAT");
+                taxRates.add(1200);
+            }
+            bandFrom = from.toArray();
+            bandTo = to.toArray();
+            bandRates = bands.toArray();
+            taxNames = taxes.toArray(new String[0]);
+            this.taxRates = taxRates.toArray();
+            groupMin = new int[groups.size()];
+            groupRates = new int[groups.size()];
+            int g = 0;
+            for (Map.Entry<Integer, Integer> e : groups.entrySet()) {
+                groupMin[g] = e.getKey();
+                groupRates[g++] = e.getValue();
+            }
+        }
 
-            center.add(grid);
-            add(center, BorderLayout.CENTER);
-
-            JPanel bottom = new JPanel();
-            JButton btnCancel = new JButton("Cancel");
-            JButton btnNext = new JButton("Proceed to Checkout");
-            bottom.add(btnCancel);
-            bottom.add(btnNext);
-            add(bottom, BorderLayout.SOUTH);
-
-            btnCancel.addActionListener(e -> {
-                selectedSeats.clear();
-                dispose();
-            });
-
-            btnNext.addActionListener(e -> {
-                if (selectedSeats.isEmpty()) {
-                    JOptionPane.showMessageDialog(this, "Please select at least one seat.");
-                    return;
-                }
-                dispose();
-            });
+        static PricingEngine defaults() {
+            return new PricingEngine(new Properties());
         }
 
-        java.util.List<String> getSelectedSeats() {
-            return new ArrayList<>(selectedSeats);
+        // A missing file means the defaults; an unreadable one is reported and
+        // the defaults are used.
+        static PricingEngine load(Path file) {
+            if (!Files.exists(file)) return defaults();
+            Properties config = new Properties();
+            try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                config.load(in);
+                return new PricingEngine(config);
+            } catch (IOException | RuntimeException ex) {
+                ex.printStackTrace();
+                return defaults();
+            }
         }
-    }
 
-    class CheckoutDialog extends JDialog {
-        private Booking completed = null;
+        // Percent text to basis points: "12.5" is 1250.
+        private static int rate(String percent) {
+            return (int) Money.parse(percent);
+        }
 
-        CheckoutDialog(JFrame owner, Movie movie, String showtime, java.util.List<String> seats) {
-            super(owner, "Checkout - " + movie.title, true);
-            setSize(460, 380);
-            setLocationRelativeTo(owner);
-            setLayout(new BorderLayout());
+        static int minuteOfDay(String hhmm) {
+            String[] parts = hhmm.trim().split(":");
+            int minute = Integer.parseInt(parts[0]) * 60 + (parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+            if (minute < 0 || minute >= 24 * 60) throw new IllegalArgumentException("not a time of day: " + hhmm);
+            return minute;
+        }
 
-            JPanel p = new JPanel();
-            p.setLayout(new BoxLayout(p, BoxLayout.Y_AXIS));
-            p.setBorder(new EmptyBorder(12, 12, 12, 12));
+        Quote newQuote() {
+            return new Quote(taxRates.length);
+        }
 
-            p.add(new JLabel("Movie: " + movie.title));
-            p.add(new JLabel("Showtime: " + showtime));
-            p.add(new JLabel("Seats: " + String.join(", ", seats)));
-            p.add(Box.createVerticalStrut(8));
+        int taxRules() {
+            return taxRates.length;
+        }
 
-            double subtotal = movie.price * seats.size();
-            double tax = subtotal * 0.12;
-            double total = subtotal + tax;
+        // "VAT (12%)".
+        String taxLabel(int rule) {
+            return taxNames[rule] + " (" + java.math.BigDecimal.valueOf(taxRates[rule], 2).stripTrailingZeros().toPlainString() + "%)";
+        }
 
-            DecimalFormat df = new DecimalFormat("0.00");
-            p.add(new JLabel("Price per seat: " + df.format(movie.price)));
-            p.add(new JLabel("Subtotal: " + df.format(subtotal)));
-            p.add(new JLabel("Tax (12%): " + df.format(tax)));
-            p.add(Box.createVerticalStrut(6));
-            p.add(new JLabel("TOTAL: " + df.format(total)));
-            p.add(Box.createVerticalStrut(12));
+        boolean knowsCode(String code) {
+            return code != null && codeRates.containsKey(code.trim());
+        }
 
-            p.add(new JLabel("Your name:"));
-            JTextField tfName = new JTextField();
-            p.add(tfName);
-            p.add(Box.createVerticalStrut(6));
-            p.add(new JLabel("Contact (phone/email):"));
-            JTextField tfContact = new JTextField();
-            p.add(tfContact);
+        // Seats the hall does not know are priced as standard.
+        void quote(Movie movie, Screening screening, java.util.List<String> seats, String code, Quote out) {
+            int band = bandRate(screening);
+            long subtotal = 0;
+            for (int i = 0; i < seats.size(); i++) subtotal += seatPrice(movie.price, band, screening.hall, screening.hall.seatIndex(seats.get(i)));
+            finish(subtotal, seats.size(), code, out);
+        }
 
-            add(p, BorderLayout.CENTER);
+        // seats is a bit set over the hall's cells, as holds keep it.
+        void quote(Movie movie, Screening screening, long[] seats, String code, Quote out) {
+            int band = bandRate(screening);
+            long subtotal = 0;
+            int count = 0;
+            for (int w = 0; w < seats.length; w++) {
+                for (long bits = seats[w]; bits != 0L; bits &= bits - 1) {
+                    subtotal += seatPrice(movie.price, band, screening.hall, (w << 6) + Long.numberOfTrailingZeros(bits));
+                    count++;
+                }
+            }
+            finish(subtotal, count, code, out);
+        }
 
-            JPanel bottom = new JPanel();
-            JButton cancel = new JButton("Cancel");
-            JButton pay = new JButton("Pay (Mock)");
-            bottom.add(cancel);
-            bottom.add(pay);
-            add(bottom, BorderLayout.SOUTH);
+        long total(Movie movie, Screening screening, java.util.List<String> seats, String code) {
+            Quote q = newQuote();
+            quote(movie, screening, seats, code, q);
+            return q.total;
+        }
 
-            cancel.addActionListener(e -> dispose());
+        private long seatPrice(long base, int band, Hall hall, int cell) {
+            long price = Money.scale(base, categoryRates[cell < 0 ? SeatCategory.STANDARD.ordinal() : hall.category(cell).ordinal()]);
+            return band < 0 ? price : Money.scale(price, band);
+        }
 
-            pay.addActionListener(e -> {
-                String name = tfName.getText().trim();
-                String contact = tfContact.getText().trim();
-                if (name.isEmpty() || contact.isEmpty()) {
-                    JOptionPane.showMessageDialog(this, "Please enter name and contact.");
-                    return;
-                }
-                String ts = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-                completed = new Booking(ts, name, contact, movie.title, showtime, seats, total);
-                dispose();
-            });
+        // The first band containing the start time, or -1.
+        private int bandRate(Screening screening) {
+            int minute = screening.minuteOfDay;
+            if (minute < 0) return -1;
+            for (int i = 0; i < bandFrom.length; i++) {
+                boolean inside = bandFrom[i] <= bandTo[i] ? minute >= bandFrom[i] && minute <= bandTo[i]
+                        : minute >= bandFrom[i] || minute <= bandTo[i];
+                if (inside) return bandRates[i];
+            }
+            return -1;
         }
 
-        Booking getCompletedBooking() {
-            return completed;
+        private void finish(long subtotal, int seats, String code, Quote out) {
+            int off = 0;
+            Integer codeRate = code == null || code.isEmpty() ? null : codeRates.get(code.trim());
+            if (codeRate != null) off = codeRate;
+            for (int g = 0; g < groupMin.length; g++) {
+                if (seats >= groupMin[g]) {
+                    off = Math.max(off, groupRates[g]);
+                    break;
+                }
+            }
+            out.seats = seats;
+            out.subtotal = subtotal;
+            out.discount = off == 0 ? 0 : Money.scale(subtotal, off);
+            long taxable = subtotal - out.discount;
+            out.tax = 0;
+            for (int t = 0; t < taxRates.length; t++) {
+                out.taxes[t] = Money.scale(taxable, taxRates[t]);
+                out.tax += out.taxes[t];
+            }
+            out.total = taxable + out.tax;
         }
     }
 
-    class ReceiptDialog extends JDialog {
-        ReceiptDialog(JFrame owner, Booking b) {
-            super(owner, "Receipt", true);
-            setSize(520, 520);
-            setLocationRelativeTo(owner);
-            setLayout(new BorderLayout());
+    // Movies, bookings and their persistence with no Swing dependency, so the
+    // window, command-line tools and benchmarks all drive the same code.
+    static class BookingSystem implements Closeable {
+        static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-            JTextArea ta = new JTextArea();
-            ta.setEditable(false);
-            ta.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        final MovieCatalog catalog = new MovieCatalog();
+        final BookingStore store = new BookingStore();
+        final Schedule schedule = new Schedule();
+        final OccupancyIndex occupancy = new OccupancyIndex(schedule);
+        final SeatReservations reservations = new SeatReservations();
+        final SalesAnalytics sales = new SalesAnalytics(schedule);
+        final Metrics metrics = new Metrics();
+        final Path csvFile;
+        final Path moviesFile;
+        final PricingEngine pricing;
+        final Path bookingsFile;
+        final boolean binary;
+        final BookingFormat format;
+        final BookingJournal journal;
+        final ReceiptTemplate receipt = ReceiptTemplate.fromProperty();
+        final Path checkpointFile;
+        // Full CSV copy written by Save All; the journal alone stops being one once
+        // a checkpoint has run or the format is binary.
+        final Path exportFile;
+        // Bookings of screenings more than this many days past move to cold
+        // segments at the next checkpoint; negative keeps every booking hot.
+        final int archiveDays = Integer.getInteger("cinema.archive.days", -1);
+        private final Object checkpointLock = new Object();
+        // Cold segments whose bookings are not in the store yet.
+        private final java.util.List<BookingCheckpoint.Segment> history = new ArrayList<>();
+        private ScheduledExecutorService checkpoints;
+        private ScheduledExecutorService replans;
+        // Sales enter the store and the journal queue under this lock, so store
+        // order is journal order; replication relies on it.
+        private final Object commitLock = new Object();
+        volatile Replication.Primary primary;
+        // Set while this system follows a primary and refuses sales of its own.
+        volatile Replication.Standby standby;
 
-            StringBuilder sb = new StringBuilder();
-            sb.append("******** Cinema Receipt ********\n");
-            sb.append("Timestamp: ").append(b.timestamp).append('\n');
-            sb.append("Name: ").append(b.name).append('\n');
-            sb.append("Contact: ").append(b.contact).append('\n');
-            sb.append("Movie: ").append(b.movie).append('\n');
-            sb.append("Showtime: ").append(b.showtime).append('\n');
-            sb.append("Seats: ").append(String.join(", ", b.seats)).append('\n');
-            sb.append("Total: ").append(String.format(Locale.US, "%.2f", b.total)).append('\n');
-            sb.append("********************************\n");
-
-            ta.setText(sb.toString());
+        BookingSystem(Path csvFile, boolean binary) {
+            this(csvFile, binary, BookingJournal.policyFromProperty());
+        }
 
-            add(new JScrollPane(ta), BorderLayout.CENTER);
+        BookingSystem(Path csvFile, boolean binary, BookingJournal.FsyncPolicy fsync) {
+            this.csvFile = csvFile;
+            this.binary = binary;
+            String movies = System.getProperty("cinema.movies.file");
+            moviesFile = movies != null ? Paths.get(movies) : csvFile.resolveSibling("cinema_movies.txt");
+            String prices = System.getProperty("cinema.pricing.file");
+            pricing = PricingEngine.load(prices != null ? Paths.get(prices) : csvFile.resolveSibling("cinema_pricing.properties"));
+            bookingsFile = binary ? csvFile.resolveSibling(binaryName(csvFile)) : csvFile;
+            format = binary ? new BinaryBookingFormat() : new TextBookingFormat();
+            journal = new BookingJournal(bookingsFile, format, fsync, metrics);
+            checkpointFile = csvFile.resolveSibling(baseName(csvFile) + ".checkpoint");
+            exportFile = csvFile.resolveSibling(baseName(csvFile) + "-export.csv");
+            defineHalls();
+            catalog.addListener(this::plan);
+        }
 
-            JPanel bottom = new JPanel();
-            JButton close = new JButton("Close");
-            JButton save = new JButton("Save Receipt as TXT");
-            bottom.add(save);
-            bottom.add(close);
-            add(bottom, BorderLayout.SOUTH);
+        private static String binaryName(Path csv) {
+            return baseName(csv) + ".bin";
+        }
 
-            close.addActionListener(e -> dispose());
+        private static String baseName(Path csv) {
+            String name = csv.getFileName().toString();
+            return name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+        }
 
-            save.addActionListener(e -> {
-                JFileChooser fc = new JFileChooser();
-                fc.setSelectedFile(new File("receipt_" + b.timestamp.replaceAll("[: ]", "_") + ".txt"));
-                int r = fc.showSaveDialog(this);
-                if (r == JFileChooser.APPROVE_OPTION) {
-                    try (BufferedWriter bw = new BufferedWriter(new FileWriter(fc.getSelectedFile()))) {
-                        bw.write(ta.getText());
-                        JOptionPane.showMessageDialog(this, "Receipt saved.");
-                    } catch (IOException ex) {
-                        JOptionPane.showMessageDialog(this, "Failed to save receipt: " + ex.getMessage());
-                    }
-                }
+        // Reads the movie catalog, writing the built-in one first if there is none.
+        void loadMovies() {
+            try {
+                if (!Files.exists(moviesFile)) MovieCatalog.write(moviesFile, MovieCatalog.defaults());
+                catalog.load(moviesFile);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                catalog.set(MovieCatalog.defaults());
+            }
+        }
+
+        // Picks up edits to the catalog file while running, and moves the
+        // schedule window on by a day at each midnight.
+        void watchMovies() {
+            try {
+                catalog.watch(moviesFile);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            if (replans != null) return;
+            replans = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "schedule-replan");
+                t.setDaemon(true);
+                return t;
             });
+            replanAtMidnight();
         }
-    }
 
-    class PastBookingsDialog extends JDialog {
-        PastBookingsDialog(JFrame owner, java.util.List<Booking> bookings) {
+        // Runs a second past midnight and rearms itself rather than running at a
+        // fixed rate, so days that are not 24 hours long do not shift it.
+        private void replanAtMidnight() {
+            long delay = java.time.Duration.between(LocalDateTime.now(), LocalDate.now().plusDays(1).atStartOfDay()).toMillis();
+            replans.schedule(() -> {
+                // The catalog installs snapshots under its own lock, so this cannot
+                // replan a movie a concurrent reload has just removed.
+                synchronized (catalog) {
+                    plan(catalog.snapshot());
+                }
+                replanAtMidnight();
+            }, Math.max(delay, 0) + 1000, TimeUnit.MILLISECONDS);
+        }
+
+        // Hall 1 is the original 6 x 8 room, so bookings from before halls existed
+        // keep their seats.
+        private void defineHalls() {
+            schedule.addHall(Hall.standard("Hall 1"));
+            schedule.addHall(new Hall("Hall 2",
+                    "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS",
+                    "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS",
+                    "PPPP.PPPPPP.PPPP", "PPPP.PPPPPP.PPPP"));
+            schedule.addHall(new Hall("Hall 3", "VV.VV.VV", "VV.VV.VV", "VV.VV.VV", "VV.VV.VV"));
+        }
+
+        // Brings the schedule in line with a new catalog snapshot.
+        private void plan(MovieCatalog.Snapshot snapshot) {
+            LocalDate from = LocalDate.now();
+            int days = Integer.getInteger("cinema.schedule.days", 14);
+            for (Movie m : snapshot.all) {
+                Hall hall = m.hall == null ? null : schedule.hall(m.hall);
+                if (hall == null) {
+                    if (m.hall != null) System.err.println("Unknown hall '" + m.hall + "' for " + m.title + ", using " + schedule.defaultHall().name);
+                    hall = schedule.defaultHall();
+                }
+                schedule.plan(m, hall, from, days);
+            }
+            for (String title : schedule.plannedMovies()) {
+                if (!snapshot.byTitle.containsKey(title)) schedule.unplan(title);
+            }
+        }
+
+        Movie findMovie(String title) {
+            return catalog.snapshot().byTitle.get(title);
+        }
+
+        // Replaces the in-memory bookings with the file contents: the checkpoint's
+        // hot bookings, then the journal segments and live journal after it.
+        // Archived bookings wait for loadHistory(). Batches are already in the
+        // store when they reach the callback.
+        long loadBookingsFromFile(Consumer<java.util.List<Booking>> batches) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return replay(batches);
+            } finally {
+                metrics.load.since(start);
+            }
+        }
+
+        private long replay(Consumer<java.util.List<Booking>> batches) throws IOException {
+            synchronized (checkpointLock) {
+                store.clear();
+                occupancy.clear();
+                sales.clear();
+                history.clear();
+                if (binary && !Files.exists(bookingsFile) && Files.exists(csvFile)) {
+                    try {
+                        long n = BinaryBookingFormat.convert(csvFile, bookingsFile);
+                        System.err.println("Migrated " + n + " bookings from " + csvFile + " to " + bookingsFile);
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+                long count = 0, seq = 0;
+                if (Files.exists(checkpointFile)) {
+                    BookingCheckpoint cp = BookingCheckpoint.read(checkpointFile, schedule, sales);
+                    for (Map.Entry<Screening, long[]> e : cp.seats.entrySet()) e.getKey().add(e.getValue());
+                    if (cp.hot != null) {
+                        count += new BinaryBookingFormat().load(checkpointFile.resolveSibling(cp.hot), batch -> {
+                            store.addAll(batch);
+                            batches.accept(batch);
+                        });
+                    }
+                    history.addAll(cp.cold);
+                    seq = cp.seq;
+                    removeCompacted(cp);
+                }
+                Consumer<java.util.List<Booking>> replay = batch -> {
+                    store.addAll(batch);
+                    for (Booking b : batch) occupancy.add(b.movie, b.showtime, b.seats);
+                    sales.addAll(batch);
+                    batches.accept(batch);
+                };
+                for (Path segment : segmentsAfter(seq).values()) count += format.load(segment, replay);
+                if (!Files.exists(bookingsFile)) return count;
+                try {
+                    long torn = journal.recover().get();
+                    if (torn > 0) System.err.println("Truncated " + torn + " bytes of incomplete booking record from " + bookingsFile);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+                return count + format.load(bookingsFile, replay);
+            }
+        }
+
+        // Adds the archived bookings to the store; a no-op once they are loaded.
+        long loadHistory() throws IOException {
+            synchronized (checkpointLock) {
+                long count = 0;
+                while (!history.isEmpty()) {
+                    count += new BinaryBookingFormat().load(checkpointFile.resolveSibling(history.get(0).file), store::addAll);
+                    history.remove(0);
+                }
+                return count;
+            }
+        }
+
+        boolean historyLoaded() {
+            synchronized (checkpointLock) {
+                return history.isEmpty();
+            }
+        }
+
+        boolean hasCheckpoint() {
+            return Files.exists(checkpointFile);
+        }
+
+        // Rotates the journal and folds the previous hot file and every rotated
+        // segment into a new checkpoint. Bookings of screenings older than
+        // cinema.archive.days go to a cold segment; the bookings already in memory
+        // stay there. Returns the number of hot bookings, or -1 if the journal had
+        // nothing new.
+        long checkpoint() throws IOException {
+            long start = System.nanoTime();
+            long hot = compact();
+            if (hot >= 0) metrics.checkpoint.since(start);
+            return hot;
+        }
+
+        private long compact() throws IOException {
+            synchronized (checkpointLock) {
+                SalesAnalytics merged = new SalesAnalytics(schedule);
+                BookingCheckpoint previous = Files.exists(checkpointFile)
+                        ? BookingCheckpoint.read(checkpointFile, schedule, merged) : new BookingCheckpoint();
+                TreeMap<Long, Path> segments = segmentsAfter(previous.seq);
+                long seq = (segments.isEmpty() ? previous.seq : segments.lastKey()) + 1;
+                try {
+                    if (journal.rotate(segment(seq)).get() == 0L) {
+                        if (segments.isEmpty()) return -1L;
+                        seq--;
+                    } else {
+                        segments.put(seq, segment(seq));
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while rotating " + bookingsFile);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new IOException(cause);
+                }
+
+                BookingCheckpoint next = new BookingCheckpoint();
+                next.seq = seq;
+                next.cold.addAll(previous.cold);
+                String base = baseName(csvFile);
+                LocalDate cutoff = archiveDays < 0 ? null : LocalDate.now().minusDays(archiveDays);
+                try (BookingCheckpoint.SegmentWriter hot = new BookingCheckpoint.SegmentWriter(checkpointFile.resolveSibling(base + ".hot-" + seq + ".bin"));
+                     BookingCheckpoint.SegmentWriter cold = new BookingCheckpoint.SegmentWriter(checkpointFile.resolveSibling(base + ".cold-" + seq + ".bin"))) {
+                    Consumer<java.util.List<Booking>> split = batch -> {
+                        try {
+                            for (Booking b : batch) {
+                                Screening s = schedule.resolve(b.movie, b.showtime);
+                                if (cutoff != null && archived(s, b, cutoff)) {
+                                    cold.write(b);
+                                    continue;
+                                }
+                                hot.write(b);
+                                long[] sold = s.hall.toSet(b.seats, false);
+                                long[] words = next.seats.computeIfAbsent(s, k -> new long[sold.length]);
+                                for (int w = 0; w < words.length; w++) words[w] |= sold[w];
+                            }
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    };
+                    try {
+                        if (previous.hot != null) new BinaryBookingFormat().load(checkpointFile.resolveSibling(previous.hot), split);
+                        for (Path segment : segments.values()) {
+                            format.load(segment, batch -> {
+                                merged.addAll(batch);
+                                split.accept(batch);
+                            });
+                        }
+                    } catch (UncheckedIOException ex) {
+                        throw ex.getCause();
+                    }
+                    if (hot.finish()) {
+                        next.hot = hot.file.getFileName().toString();
+                        next.hotCount = hot.count;
+                    }
+                    if (cold.finish()) next.cold.add(new BookingCheckpoint.Segment(cold.file.getFileName().toString(), cold.count));
+                }
+                next.write(checkpointFile, merged);
+                removeCompacted(next);
+                return next.hotCount;
+            }
+        }
+
+        // Undated screenings are aged by the day the booking was made.
+        private static boolean archived(Screening s, Booking b, LocalDate cutoff) {
+            LocalDate day = s.date;
+            if (day == null) {
+                try {
+                    day = LocalDate.parse(b.timestamp.substring(0, Math.min(10, b.timestamp.length())));
+                } catch (DateTimeParseException ex) {
+                    return false;
+                }
+            }
+            return day.isBefore(cutoff);
+        }
+
+        private Path segment(long seq) {
+            return bookingsFile.resolveSibling(bookingsFile.getFileName() + "." + seq);
+        }
+
+        // Rotated journal segments after seq, by sequence number.
+        private TreeMap<Long, Path> segmentsAfter(long seq) throws IOException {
+            TreeMap<Long, Path> out = new TreeMap<>();
+            String prefix = bookingsFile.getFileName() + ".";
+            for (Path p : siblings()) {
+                long n = number(p.getFileName().toString(), prefix, "");
+                if (n > seq) out.put(n, p);
+            }
+            return out;
+        }
+
+        // Deletes what the checkpoint has made redundant: covered segments,
+        // unreferenced hot and cold files and temp files of interrupted runs.
+        private void removeCompacted(BookingCheckpoint cp) throws IOException {
+            String segments = bookingsFile.getFileName() + ".";
+            String hot = baseName(csvFile) + ".hot-";
+            String cold = baseName(csvFile) + ".cold-";
+            Set<String> keep = new HashSet<>();
+            if (cp.hot != null) keep.add(cp.hot);
+            for (BookingCheckpoint.Segment s : cp.cold) keep.add(s.file);
+            for (Path p : siblings()) {
+                String name = p.getFileName().toString();
+                long n = number(name, segments, "");
+                boolean stale = n >= 0 && n <= cp.seq
+                        || (number(name, hot, ".bin") >= 0 || number(name, cold, ".bin") >= 0) && !keep.contains(name)
+                        || number(name, hot, ".bin.tmp") >= 0 || number(name, cold, ".bin.tmp") >= 0
+                        || name.equals(checkpointFile.getFileName() + ".tmp");
+                if (stale) Files.deleteIfExists(p);
+            }
+        }
+
+        private java.util.List<Path> siblings() throws IOException {
+            Path dir = checkpointFile.toAbsolutePath().getParent();
+            java.util.List<Path> out = new ArrayList<>();
+            if (dir == null || !Files.isDirectory(dir)) return out;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path p : files) out.add(p);
+            }
+            return out;
+        }
+
+        // The number between prefix and suffix in name, or -1 if it is not that pattern.
+        private static long number(String name, String prefix, String suffix) {
+            int from = prefix.length(), to = name.length() - suffix.length();
+            if (to <= from || !name.startsWith(prefix) || !name.endsWith(suffix) || to - from > 18) return -1L;
+            long n = 0;
+            for (int i = from; i < to; i++) {
+                char c = name.charAt(i);
+                if (c < '0' || c > '9') return -1L;
+                n = n * 10 + (c - '0');
+            }
+            return n;
+        }
+
+        // Checkpoints every cinema.checkpoint.minutes (10 by default, 0 turns it
+        // off) whenever the journal has taken new bookings.
+        void startCheckpoints() {
+            long minutes = Long.getLong("cinema.checkpoint.minutes", 10);
+            if (minutes <= 0 || checkpoints != null) return;
+            checkpoints = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "booking-checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+            checkpoints.scheduleWithFixedDelay(() -> {
+                try {
+                    long hot = checkpoint();
+                    if (hot >= 0) System.err.println("Checkpointed " + hot + " bookings to " + checkpointFile);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }, minutes, minutes, TimeUnit.MINUTES);
+        }
+
+        CompletableFuture<Long> appendBookingToFile(Booking b) {
+            return journal.append(b);
+        }
+
+        static String now() {
+            return LocalDateTime.now().format(TIMESTAMP);
+        }
+
+        // Turns the hold into a sale and queues the write; null when the hold
+        // expired and its seats have been taken since.
+        CompletableFuture<Long> commit(SeatReservations.Hold hold, Booking b) {
+            return commitAll(Collections.singletonList(hold), Collections.singletonList(b));
+        }
+
+        // Sells every hold or none of them: if one expired and lost its seats, the
+        // seats of the others are given back and the result is null. The bookings
+        // are queued as one journal write.
+        CompletableFuture<Long> commitAll(java.util.List<SeatReservations.Hold> holds, java.util.List<Booking> bookings) {
+            long start = System.nanoTime();
+            for (int i = 0; i < holds.size(); i++) {
+                if (reservations.confirm(holds.get(i))) continue;
+                for (int j = 0; j < i; j++) holds.get(j).screening.release(holds.get(j).seats);
+                for (int j = i + 1; j < holds.size(); j++) reservations.release(holds.get(j));
+                metrics.conflicts.increment();
+                return null;
+            }
+            CompletableFuture<Long> write;
+            synchronized (commitLock) {
+                store.addAll(bookings);
+                sales.addAll(bookings);
+                write = bookings.size() == 1 ? journal.append(bookings.get(0)) : journal.appendAll(bookings);
+            }
+            Replication.Primary p = primary;
+            if (p != null) p.signal();
+            long tickets = 0;
+            for (Booking b : bookings) tickets += b.seats.size();
+            metrics.bookings.add(bookings.size());
+            metrics.tickets.add(tickets);
+            write.whenComplete((position, ex) -> metrics.checkout.since(start));
+            return write;
+        }
+
+        // What importBookings did with the non-blank lines of a file; the
+        // counts add up to the number of those lines.
+        static final class ImportResult {
+            long imported;
+            long malformed;
+            long unknownScreening;
+            long unknownSeats;
+            long seatsTaken;
+
+            long skipped() {
+                return malformed + unknownScreening + unknownSeats + seatsTaken;
+            }
+        }
+
+        // Sells pre-sold tickets listed in a file in the text booking format,
+        // keeping their sale time and price. Each batch the loader parses is held
+        // seat by seat, so a booking that clashes with an earlier sale or with
+        // another line of the file is skipped, and the rest of the batch is
+        // committed with one journal write.
+        ImportResult importBookings(Path file) throws IOException {
+            ImportResult result = new ImportResult();
+            LongAdder malformed = new LongAdder();
+            java.util.List<CompletableFuture<Long>> writes = new ArrayList<>();
+            BookingLoader.stream(file, BookingLoader.defaultParallelism(), batch -> {
+                java.util.List<SeatReservations.Hold> holds = new ArrayList<>(batch.size());
+                java.util.List<Booking> sold = new ArrayList<>(batch.size());
+                for (Booking b : batch) {
+                    Screening s = occupancy.screening(b.movie, b.showtime);
+                    if (s == null) {
+                        result.unknownScreening++;
+                        continue;
+                    }
+                    long[] set = s.hall.toSet(b.seats, true);
+                    if (set == null || b.seats.isEmpty()) {
+                        result.unknownSeats++;
+                        continue;
+                    }
+                    SeatReservations.Hold h = reservations.hold(s, set, SeatReservations.HOLD_TTL_MS);
+                    if (h == null) {
+                        result.seatsTaken++;
+                        continue;
+                    }
+                    holds.add(h);
+                    sold.add(b);
+                }
+                if (sold.isEmpty()) return;
+                CompletableFuture<Long> write = commitAll(holds, sold);
+                if (write == null) {
+                    result.seatsTaken += sold.size();
+                    return;
+                }
+                result.imported += sold.size();
+                writes.add(write);
+            }, malformed);
+            result.malformed = malformed.sum();
+            try {
+                for (CompletableFuture<Long> w : writes) w.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while importing " + file);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                throw new IOException(cause);
+            }
+            return result;
+        }
+
+        // Adds bookings copied from the primary; completes once they are in the
+        // journal.
+        CompletableFuture<Long> apply(java.util.List<Booking> batch) {
+            synchronized (commitLock) {
+                store.addAll(batch);
+                for (Booking b : batch) occupancy.add(b.movie, b.showtime, b.seats);
+                sales.addAll(batch);
+                return journal.appendAll(batch);
+            }
+        }
+
+        // Forgets every booking, in memory and on disk, before a standby copies
+        // the primary's history from the start.
+        void clearBookings() throws IOException {
+            synchronized (checkpointLock) {
+                try {
+                    journal.replace(Collections.emptyList(), null).get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while clearing " + bookingsFile);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new IOException(cause);
+                }
+                Files.deleteIfExists(checkpointFile);
+                BookingCheckpoint none = new BookingCheckpoint();
+                none.seq = Long.MAX_VALUE;
+                removeCompacted(none);
+                store.clear();
+                occupancy.clear();
+                sales.clear();
+                history.clear();
+            }
+        }
+
+        // Lets standbys follow this system when cinema.replication.port is set.
+        // They get the archived bookings too, so history is loaded first.
+        void startPrimary() throws IOException {
+            Integer port = Integer.getInteger("cinema.replication.port");
+            if (port == null || primary != null) return;
+            loadHistory();
+            primary = Replication.Primary.start(this, port);
+        }
+
+        void follow(String host, int port) throws IOException {
+            loadHistory();
+            standby = Replication.Standby.start(this, host, port);
+        }
+
+        // Stops following the primary and starts taking sales. The replication
+        // port is opened first; if that fails this stays a standby.
+        void promote() throws IOException {
+            Replication.Standby s = standby;
+            if (s == null) return;
+            startPrimary();
+            s.close();
+            standby = null;
+            Replication.Primary p = primary;
+            if (p != null) p.signal();
+            System.err.println("Promoted to primary at booking " + s.applied);
+        }
+
+        // Writes only the bookings whose append has not reached the file yet.
+        int saveAllBookingsToFile(java.util.List<Booking> pending) throws IOException {
+            try {
+                java.util.List<CompletableFuture<Long>> writes = new ArrayList<>(pending.size());
+                for (Booking b : pending) writes.add(journal.append(b));
+                for (CompletableFuture<Long> w : writes) w.get();
+                return pending.size();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while saving bookings");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        // Rewrites the journal with every booking in the store and completes with
+        // the bookings written; progress gets the percentage done. The snapshot is
+        // taken and the rewrite queued under commitLock, so a concurrent booking
+        // is either in the snapshot with its append queued ahead of the rewrite,
+        // or appended to the new file after it; none is lost or written twice.
+        CompletableFuture<java.util.List<Booking>> exportAll(IntConsumer progress) {
+            long start = System.nanoTime();
+            java.util.List<Booking> snapshot;
+            CompletableFuture<Long> done;
+            synchronized (commitLock) {
+                snapshot = store.snapshot();
+                int total = Math.max(1, snapshot.size());
+                done = journal.replace(snapshot, n -> progress.accept((int) (n * 100L / total)));
+            }
+            done.whenComplete((size, ex) -> metrics.export.since(start));
+            return done.thenApply(size -> snapshot);
+        }
+
+        // Writes every booking, archived ones included, to exportFile as CSV
+        // records. The file is replaced only once it is complete.
+        long exportCsv() throws IOException {
+            long start = System.nanoTime();
+            try {
+                loadHistory();
+                java.util.List<Booking> all = store.snapshot();
+                Path tmp = exportFile.resolveSibling(exportFile.getFileName() + ".tmp");
+                try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (Booking b : all) {
+                        w.write(b.toRecord());
+                        w.write('\n');
+                    }
+                }
+                Files.move(tmp, exportFile, StandardCopyOption.REPLACE_EXISTING);
+                return all.size();
+            } finally {
+                metrics.export.since(start);
+            }
+        }
+
+        // A target ending in .zip becomes one archive; anything else a directory.
+        long exportReceipts(java.util.List<Booking> bookings, Path target, IntConsumer progress) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return new ReceiptExporter(receipt, Runtime.getRuntime().availableProcessors()).export(bookings, target, progress);
+            } finally {
+                metrics.export.since(start);
+            }
+        }
+
+        // Publishes the metrics over JMX and starts their periodic log.
+        void startMetrics() {
+            metrics.register();
+            metrics.startLog();
+        }
+
+        @Override
+        public void close() {
+            if (checkpoints != null) checkpoints.shutdown();
+            if (replans != null) replans.shutdownNow();
+            reservations.close();
+            if (standby != null) standby.close();
+            if (primary != null) primary.close();
+            journal.close();
+            metrics.close();
+        }
+    }
+
+    // JSON-over-HTTP front end for BookingSystem on the JDK's built-in server:
+    //   GET    /movies
+    //   GET    /screenings?movie=..
+    //   GET    /seats?movie=..&showtime=..
+    //   POST   /holds      movie, showtime, seats=A1,A2
+    //   DELETE /holds?hold=..
+    //   POST   /bookings   hold, name, contact, optional discount code
+    // Parameters come from the query string or a form-encoded body. A booking is
+    // answered once its journal write completes.
+    static class BookingServer {
+        private final BookingSystem system;
+        private final HttpServer http;
+        private final ExecutorService workers;
+
+        private BookingServer(BookingSystem system, HttpServer http, ExecutorService workers) {
+            this.system = system;
+            this.http = http;
+            this.workers = workers;
+        }
+
+        static BookingServer start(BookingSystem system, int port) throws IOException {
+            // Headers and body go out as separate small writes; without TCP_NODELAY
+            // every response waits out the client's delayed ACK (~40 ms).
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+            HttpServer http = HttpServer.create(new InetSocketAddress(port), 1024);
+            BookingServer server = new BookingServer(system, http, workers());
+            http.createContext("/movies", ex -> server.handle(ex, "GET", server::movies));
+            http.createContext("/screenings", ex -> server.handle(ex, "GET", server::screenings));
+            http.createContext("/seats", ex -> server.handle(ex, "GET", server::seats));
+            http.createContext("/holds", ex -> {
+                if ("DELETE".equals(ex.getRequestMethod())) server.handle(ex, "DELETE", server::release);
+                else server.handle(ex, "POST", server::hold);
+            });
+            http.createContext("/bookings", ex -> server.handle(ex, "POST", server::book));
+            http.createContext("/replication", ex -> server.handle(ex, "GET", server::replication));
+            http.createContext("/promote", ex -> server.handle(ex, "POST", server::promote));
+            http.setExecutor(server.workers);
+            http.start();
+            System.err.println("Booking service listening on port " + http.getAddress().getPort());
+            return server;
+        }
+
+        // Virtual threads when the runtime has them (JDK 21+), otherwise a fixed
+        // pool sized by -Dcinema.http.threads.
+        private static ExecutorService workers() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                int threads = Integer.getInteger("cinema.http.threads", Math.max(8, Runtime.getRuntime().availableProcessors() * 8));
+                AtomicLong ids = new AtomicLong();
+                return Executors.newFixedThreadPool(threads, r -> {
+                    Thread t = new Thread(r, "booking-http-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+
+        int port() {
+            return http.getAddress().getPort();
+        }
+
+        void stop() {
+            http.stop(1);
+            workers.shutdown();
+        }
+
+        interface Handler {
+            void handle(HttpExchange ex, Map<String, String> params) throws IOException;
+        }
+
+        private void handle(HttpExchange ex, String method, Handler handler) throws IOException {
+            try {
+                if (!method.equals(ex.getRequestMethod())) {
+                    respond(ex, 405, error("use " + method));
+                    return;
+                }
+                if (!"GET".equals(method) && system.standby != null && !"/promote".equals(ex.getHttpContext().getPath())) {
+                    respond(ex, 503, error("standby: POST /promote first"));
+                    return;
+                }
+                handler.handle(ex, params(ex));
+            } catch (IllegalArgumentException e) {
+                respond(ex, 400, error(e.getMessage()));
+            } catch (RuntimeException | IOException e) {
+                e.printStackTrace();
+                respond(ex, 500, error(String.valueOf(e.getMessage())));
+            }
+        }
+
+        // ?sort=rating and ?genre=.. pick one of the catalog's precomputed views.
+        private void movies(HttpExchange ex, Map<String, String> params) throws IOException {
+            MovieCatalog.Snapshot catalog = system.catalog.snapshot();
+            java.util.List<Movie> view = "rating".equals(params.get("sort")) ? catalog.byRating : catalog.all;
+            if (params.get("genre") != null) {
+                java.util.List<Movie> genre = catalog.byGenre.getOrDefault(params.get("genre"), Collections.emptyList());
+                view = view == catalog.byRating ? filterRated(catalog, genre) : genre;
+            }
+            StringBuilder sb = new StringBuilder(256).append('[');
+            for (Movie m : view) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append("{\"title\":");
+                quote(sb, m.title).append(",\"genre\":");
+                quote(sb, m.genre).append(",\"rating\":").append(m.rating).append(",\"price\":");
+                Money.append(sb, m.price).append(",\"hall\":");
+                quote(sb, m.hall != null ? m.hall : system.schedule.defaultHall().name).append(",\"showtimes\":");
+                strings(sb, m.showtimes).append('}');
+            }
+            respond(ex, 200, sb.append(']').toString());
+        }
+
+        private static java.util.List<Movie> filterRated(MovieCatalog.Snapshot catalog, java.util.List<Movie> genre) {
+            java.util.List<Movie> out = new ArrayList<>(genre.size());
+            for (Movie m : catalog.byRating) if (genre.contains(m)) out.add(m);
+            return out;
+        }
+
+        private void screenings(HttpExchange ex, Map<String, String> params) throws IOException {
+            Movie movie = movie(params);
+            StringBuilder sb = new StringBuilder(1024).append('[');
+            for (Screening s : system.schedule.upcoming(movie.title, LocalDateTime.now())) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append("{\"showtime\":");
+                quote(sb, s.key).append(",\"date\":");
+                quote(sb, s.date.toString()).append(",\"time\":");
+                quote(sb, s.time).append(",\"hall\":");
+                quote(sb, s.hall.name).append(",\"free\":").append(s.free()).append('}');
+            }
+            respond(ex, 200, sb.append(']').toString());
+        }
+
+        private void seats(HttpExchange ex, Map<String, String> params) throws IOException {
+            long start = System.nanoTime();
+            Movie movie = movie(params);
+            Screening s = screening(movie, params);
+            StringBuilder sb = new StringBuilder(1024).append("{\"movie\":");
+            quote(sb, movie.title).append(",\"showtime\":");
+            quote(sb, s.key).append(",\"hall\":");
+            quote(sb, s.hall.name).append(",\"rows\":").append(s.hall.rows)
+                    .append(",\"cols\":").append(s.hall.cols).append(",\"layout\":");
+            strings(sb, s.hall.layout()).append(",\"seats\":");
+            strings(sb, s.hall.seatNames()).append(",\"occupied\":");
+            strings(sb, s.hall.seatNames(s.occupied())).append('}');
+            system.metrics.seatMap.since(start);
+            respond(ex, 200, sb.toString());
+        }
+
+        // seats=A1,A2 holds those seats; count=N instead lets the service pick
+        // the best block of N seats together.
+        private void hold(HttpExchange ex, Map<String, String> params) throws IOException {
+            Movie movie = movie(params);
+            Screening s = screening(movie, params);
+            SeatReservations.Hold h;
+            if (params.get("count") != null && params.get("seats") == null) {
+                int n;
+                try {
+                    n = Integer.parseInt(params.get("count"));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad count");
+                }
+                if (n <= 0 || n > s.hall.seatCount) throw new IllegalArgumentException("count must be 1-" + s.hall.seatCount);
+                h = system.reservations.holdBlock(s, n, SeatReservations.HOLD_TTL_MS);
+                if (h == null) {
+                    respond(ex, 409, error("no block of " + n + " free seats together"));
+                    return;
+                }
+            } else {
+                java.util.List<String> seats = new ArrayList<>();
+                for (String seat : required(params, "seats").split(",")) {
+                    if (s.hall.seatIndex(seat) < 0) throw new IllegalArgumentException("unknown seat " + seat.trim());
+                    seats.add(seat.trim());
+                }
+                h = system.reservations.hold(s, seats, SeatReservations.HOLD_TTL_MS);
+                if (h == null) {
+                    respond(ex, 409, error("seats taken"));
+                    return;
+                }
+            }
+            StringBuilder sb = new StringBuilder(128).append("{\"hold\":").append(h.id).append(",\"expiresAt\":").append(h.expiresAt)
+                    .append(",\"seats\":[");
+            java.util.List<String> names = h.seatNames();
+            for (int i = 0; i < names.size(); i++) quote(i > 0 ? sb.append(',') : sb, names.get(i));
+            sb.append("],\"total\":");
+            PricingEngine.Quote q = system.pricing.newQuote();
+            system.pricing.quote(movie, s, h.seats, null, q);
+            Money.append(sb, q.total).append('}');
+            respond(ex, 201, sb.toString());
+        }
+
+        private void replication(HttpExchange ex, Map<String, String> params) throws IOException {
+            StringBuilder sb = new StringBuilder(256);
+            Replication.Standby s = system.standby;
+            Replication.Primary p = system.primary;
+            if (s != null) {
+                sb.append("{\"role\":\"standby\",\"primary\":");
+                quote(sb, s.host + ":" + s.port).append(",\"connected\":").append(s.connected)
+                        .append(",\"applied\":").append(s.applied).append('}');
+            } else {
+                long size = system.store.size();
+                sb.append("{\"role\":\"primary\",\"bookings\":").append(size).append(",\"standbys\":[");
+                if (p != null) {
+                    String sep = "";
+                    for (Replication.Primary.Follower f : p.followers) {
+                        sb.append(sep).append("{\"address\":");
+                        quote(sb, f.address).append(",\"sent\":").append(f.sent).append(",\"acked\":").append(f.acked)
+                                .append(",\"behind\":").append(size - f.acked).append('}');
+                        sep = ",";
+                    }
+                }
+                sb.append("]}");
+            }
+            respond(ex, 200, sb.toString());
+        }
+
+        private void promote(HttpExchange ex, Map<String, String> params) throws IOException {
+            if (system.standby == null) {
+                respond(ex, 409, error("already primary"));
+                return;
+            }
+            system.promote();
+            system.startCheckpoints();
+            replication(ex, params);
+        }
+
+        private void release(HttpExchange ex, Map<String, String> params) throws IOException {
+            SeatReservations.Hold h = system.reservations.find(holdId(params));
+            if (h == null) {
+                respond(ex, 404, error("no such hold"));
+                return;
+            }
+            system.reservations.release(h);
+            respond(ex, 200, "{}");
+        }
+
+        private void book(HttpExchange ex, Map<String, String> params) throws IOException {
+            SeatReservations.Hold h = system.reservations.find(holdId(params));
+            String name = required(params, "name");
+            String contact = required(params, "contact");
+            if (h == null) {
+                respond(ex, 404, error("no such hold, or it expired"));
+                return;
+            }
+            String code = params.get("code");
+            if (code != null && !system.pricing.knowsCode(code)) {
+                respond(ex, 400, error("unknown discount code"));
+                return;
+            }
+            // A catalog reload can drop the movie while the hold is open; there is
+            // no price to charge then, so the seats go back instead.
+            Movie movie = system.findMovie(h.movie);
+            if (movie == null) {
+                system.reservations.release(h);
+                respond(ex, 409, error("movie is no longer showing"));
+                return;
+            }
+            PricingEngine.Quote q = system.pricing.newQuote();
+            system.pricing.quote(movie, h.screening, h.seats, code, q);
+            Booking b = Booking.adopt(BookingSystem.now(), name, contact, h.movie, h.showtime, h.seatNames(), q.total);
+            CompletableFuture<Long> write = system.commit(h, b);
+            if (write == null) {
+                respond(ex, 410, error("hold expired and the seats were sold"));
+                return;
+            }
+            write.whenComplete((position, e) -> {
+                try {
+                    if (e != null) {
+                        e.printStackTrace();
+                        respond(ex, 500, error("booking could not be written"));
+                        return;
+                    }
+                    StringBuilder sb = new StringBuilder(160).append("{\"timestamp\":");
+                    quote(sb, b.timestamp).append(",\"movie\":");
+                    quote(sb, b.movie).append(",\"showtime\":");
+                    quote(sb, b.showtime).append(",\"seats\":");
+                    strings(sb, b.seats).append(",\"total\":");
+                    Money.append(sb, b.totalCents).append('}');
+                    respond(ex, 201, sb.toString());
+                } catch (IOException io) {
+                    ex.close();
+                }
+            });
+        }
+
+        private Movie movie(Map<String, String> params) {
+            Movie movie = system.findMovie(required(params, "movie"));
+            if (movie == null) throw new IllegalArgumentException("unknown movie " + params.get("movie"));
+            return movie;
+        }
+
+        private Screening screening(Movie movie, Map<String, String> params) {
+            String showtime = required(params, "showtime");
+            Screening s = system.schedule.find(movie.title, showtime);
+            if (s == null || s.date == null) throw new IllegalArgumentException("unknown showtime " + showtime);
+            return s;
+        }
+
+        private static long holdId(Map<String, String> params) {
+            try {
+                return Long.parseLong(required(params, "hold"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad hold id");
+            }
+        }
+
+        private static String required(Map<String, String> params, String name) {
+            String value = params.get(name);
+            if (value == null || value.trim().isEmpty()) throw new IllegalArgumentException("missing " + name);
+            return value.trim();
+        }
+
+        private static Map<String, String> params(HttpExchange ex) throws IOException {
+            Map<String, String> params = new HashMap<>();
+            parse(ex.getRequestURI().getRawQuery(), params);
+            String type = ex.getRequestHeaders().getFirst("Content-Type");
+            if (type == null || type.startsWith("application/x-www-form-urlencoded")) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buf = new byte[1024];
+                try (InputStream in = ex.getRequestBody()) {
+                    for (int n; (n = in.read(buf)) > 0; ) body.write(buf, 0, n);
+                }
+                parse(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+            }
+            return params;
+        }
+
+        private static void parse(String query, Map<String, String> params) throws UnsupportedEncodingException {
+            if (query == null || query.isEmpty()) return;
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq <= 0) continue;
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+
+        private static void respond(HttpExchange ex, int status, String json) throws IOException {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(status, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        private static String error(String message) {
+            return quote(new StringBuilder("{\"error\":"), message).append('}').toString();
+        }
+
+        private static StringBuilder strings(StringBuilder sb, java.util.List<String> values) {
+            sb.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) sb.append(',');
+                quote(sb, values.get(i));
+            }
+            return sb.append(']');
+        }
+
+        static StringBuilder quote(StringBuilder sb, String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') sb.append('\\').append(c);
+                else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                else sb.append(c);
+            }
+            return sb.append('"');
+        }
+    }
+
+    // Primary/standby copy of the booking history over TCP. The primary's store is
+    // the log: sales are added to it in journal order, so a standby's position is
+    // the number of bookings it holds. A standby connects with that count and a
+    // fingerprint of those bookings; the primary streams the rows after it in
+    // batches, or starts over with a reset when the fingerprints differ, and the
+    // standby acknowledges each batch once its own journal has it. A sale does
+    // not wait for standbys; GET /replication shows how far each one is behind.
+    static final class Replication {
+        static final int MAGIC = 0x43525031;
+        static final int BATCH = 1024;
+        // How long a sender waits for a batch to fill once woken by a sale.
+        static final int LINGER_MS = Integer.getInteger("cinema.replication.linger.ms", 5);
+        static final int HEARTBEAT_MS = 1000;
+        static final int TIMEOUT_MS = 5000;
+        static final byte BOOKINGS = 'B';
+        static final byte RESET = 'R';
+        static final byte HEARTBEAT = 'H';
+
+        // A sum of per-booking hashes, so it does not depend on order: after a
+        // restart the store holds hot bookings first and archived ones after
+        // them, and a standby that loaded the same bookings in journal order must
+        // still match.
+        static long fingerprint(long h, Booking b) {
+            String r = b.toRecord();
+            long x = 0xcbf29ce484222325L;
+            for (int i = 0; i < r.length(); i++) x = (x ^ r.charAt(i)) * 0x100000001b3L;
+            return h + (x ^ x >>> 29);
+        }
+
+        static void write(DataOutputStream out, Booking b) throws IOException {
+            out.writeUTF(b.timestamp);
+            out.writeUTF(b.name);
+            out.writeUTF(b.contact);
+            out.writeUTF(b.movie);
+            out.writeUTF(b.showtime);
+            out.writeInt(b.seats.size());
+            for (String seat : b.seats) out.writeUTF(seat);
+            out.writeLong(b.totalCents);
+        }
+
+        static Booking read(DataInputStream in) throws IOException {
+            String ts = in.readUTF(), name = in.readUTF(), contact = in.readUTF(), movie = in.readUTF(), showtime = in.readUTF();
+            int n = in.readInt();
+            java.util.List<String> seats = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) seats.add(in.readUTF());
+            return Booking.adopt(ts, name, contact, movie, showtime, seats, in.readLong());
+        }
+
+        static final class Primary implements Closeable {
+            // Where one standby is: rows sent and rows it has on disk.
+            static final class Follower {
+                final String address;
+                volatile long sent;
+                volatile long acked;
+
+                Follower(String address, long position) {
+                    this.address = address;
+                    sent = acked = position;
+                }
+            }
+
+            private final BookingSystem system;
+            private final ServerSocket server;
+            private final Object appended = new Object();
+            final java.util.List<Follower> followers = new CopyOnWriteArrayList<>();
+            private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+            private volatile boolean closed;
+
+            private Primary(BookingSystem system, ServerSocket server) {
+                this.system = system;
+                this.server = server;
+            }
+
+            static Primary start(BookingSystem system, int port) throws IOException {
+                Primary p = new Primary(system, new ServerSocket(port));
+                Thread accept = new Thread(p::accept, "replication-accept");
+                accept.setDaemon(true);
+                accept.start();
+                System.err.println("Replicating bookings to standbys on port " + p.port());
+                return p;
+            }
+
+            int port() {
+                return server.getLocalPort();
+            }
+
+            // Called after each sale so waiting senders wake up.
+            void signal() {
+                synchronized (appended) {
+                    appended.notifyAll();
+                }
+            }
+
+            private void accept() {
+                while (!closed) {
+                    try {
+                        Socket s = server.accept();
+                        Thread t = new Thread(() -> serve(s), "replication-" + s.getRemoteSocketAddress());
+                        t.setDaemon(true);
+                        t.start();
+                    } catch (IOException ex) {
+                        if (!closed) ex.printStackTrace();
+                    }
+                }
+            }
+
+            private void serve(Socket s) {
+                sockets.add(s);
+                Follower f = null;
+                try {
+                    s.setTcpNoDelay(true);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+                    if (in.readInt() != MAGIC) throw new IOException("Not a booking standby");
+                    long count = in.readLong(), hash = in.readLong();
+                    long next = count;
+                    if (count > system.store.size() || fingerprint(count) != hash) {
+                        out.writeByte(RESET);
+                        next = 0;
+                    }
+                    f = new Follower(String.valueOf(s.getRemoteSocketAddress()), next);
+                    followers.add(f);
+                    System.err.println("Standby " + f.address + " connected at booking " + next);
+                    Follower follower = f;
+                    Thread acks = new Thread(() -> readAcks(s, in, follower), "replication-acks-" + f.address);
+                    acks.setDaemon(true);
+                    acks.start();
+                    while (!closed) {
+                        int size = system.store.size();
+                        if (next >= size) {
+                            out.flush();
+                            synchronized (appended) {
+                                if (system.store.size() <= next) appended.wait(HEARTBEAT_MS);
+                            }
+                            if (system.store.size() <= next) {
+                                out.writeByte(HEARTBEAT);
+                                continue;
+                            }
+                            // Fewer, larger batches cost the standby fewer fsyncs.
+                            if (LINGER_MS > 0) Thread.sleep(LINGER_MS);
+                            size = system.store.size();
+                        }
+                        java.util.List<Booking> batch = system.store.range((int) next, (int) Math.min(size, next + BATCH));
+                        out.writeByte(BOOKINGS);
+                        out.writeInt(batch.size());
+                        for (Booking b : batch) write(out, b);
+                        next += batch.size();
+                        f.sent = next;
+                    }
+                } catch (IOException ex) {
+                    if (!closed) System.err.println("Standby " + s.getRemoteSocketAddress() + " disconnected: " + ex.getMessage());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (f != null) followers.remove(f);
+                    sockets.remove(s);
+                    closeQuietly(s);
+                }
+            }
+
+            private long fingerprint(long count) {
+                long h = 0;
+                for (Booking b : system.store.range(0, (int) count)) h = Replication.fingerprint(h, b);
+                return h;
+            }
+
+            private void readAcks(Socket s, DataInputStream in, Follower f) {
+                try {
+                    while (true) f.acked = in.readLong();
+                } catch (IOException ex) {
+                    closeQuietly(s);
+                }
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                closeQuietly(server);
+                for (Socket s : sockets) closeQuietly(s);
+                signal();
+            }
+        }
+
+        static final class Standby implements Closeable {
+            private final BookingSystem system;
+            final String host;
+            final int port;
+            private final Thread thread;
+            // Bookings held and their fingerprint, owned by the replication thread.
+            private long count;
+            private long hash;
+            volatile long applied;
+            volatile boolean connected;
+            private volatile boolean stopped;
+            private volatile Socket socket;
+            private String lastError;
+
+            private Standby(BookingSystem system, String host, int port) {
+                this.system = system;
+                this.host = host;
+                this.port = port;
+                for (Booking b : system.store.snapshot()) hash = fingerprint(hash, b);
+                applied = count = system.store.size();
+                thread = new Thread(this::run, "replication-standby");
+                thread.setDaemon(true);
+            }
+
+            static Standby start(BookingSystem system, String host, int port) {
+                Standby s = new Standby(system, host, port);
+                s.thread.start();
+                return s;
+            }
+
+            private void run() {
+                while (!stopped) {
+                    try (Socket s = new Socket()) {
+                        socket = s;
+                        s.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+                        s.setSoTimeout(TIMEOUT_MS);
+                        s.setTcpNoDelay(true);
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                        out.writeInt(MAGIC);
+                        out.writeLong(count);
+                        out.writeLong(hash);
+                        out.flush();
+                        connected = true;
+                        lastError = null;
+                        System.err.println("Following primary " + host + ":" + port + " from booking " + count);
+                        // Every batch already received is applied before waiting for
+                        // the journal, so one fsync and one ack can cover several.
+                        CompletableFuture<Long> written = null;
+                        while (!stopped) {
+                            if (written != null && in.available() == 0) {
+                                written.get();
+                                written = null;
+                                applied = count;
+                                out.writeLong(count);
+                                out.flush();
+                            }
+                            byte type = in.readByte();
+                            if (type == HEARTBEAT) continue;
+                            if (type == RESET) {
+                                System.err.println("Standby history differs from the primary; copying it again");
+                                system.clearBookings();
+                                applied = count = hash = 0;
+                                continue;
+                            }
+                            if (type != BOOKINGS) throw new IOException("Unexpected replication frame " + type);
+                            int n = in.readInt();
+                            java.util.List<Booking> batch = new ArrayList<>(n);
+                            for (int i = 0; i < n; i++) {
+                                Booking b = read(in);
+                                batch.add(b);
+                                hash = fingerprint(hash, b);
+                            }
+                            written = system.apply(batch);
+                            count += n;
+                        }
+                    } catch (IOException ex) {
+                        // Reported once per outage, not on every retry.
+                        if (!stopped && !String.valueOf(ex.getMessage()).equals(lastError)) {
+                            System.err.println("Lost primary " + host + ":" + port + ": " + ex.getMessage());
+                        }
+                        lastError = String.valueOf(ex.getMessage());
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (ExecutionException ex) {
+                        // The bookings are in memory but not on disk here; a fresh copy puts both right.
+                        ex.printStackTrace();
+                        hash = ~hash;
+                    }
+                    connected = false;
+                    try {
+                        if (!stopped) Thread.sleep(HEARTBEAT_MS);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+
+            // Stops following; returns once the last received batch is applied.
+            @Override
+            public void close() {
+                stopped = true;
+                Socket s = socket;
+                if (s != null) closeQuietly(s);
+                try {
+                    thread.join(TIMEOUT_MS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        static void closeQuietly(Closeable c) {
+            try {
+                c.close();
+            } catch (IOException ex) {
+                // already closed
+            }
+        }
+    }
+
+    // Bounded worker pool for disk and data work so the event thread never waits
+    // on I/O. Completion callbacks are delivered on the event thread.
+    static class BackgroundTasks {
+        private final ThreadPoolExecutor pool;
+
+        BackgroundTasks(int threads, int queueCapacity) {
+            AtomicLong ids = new AtomicLong();
+            pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), r -> {
+                        Thread t = new Thread(r, "cinema-worker-" + ids.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+        }
+
+        void execute(Runnable task) {
+            pool.execute(task);
+        }
+
+        <T> CompletableFuture<T> submit(Callable<T> work) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            pool.execute(() -> {
+                try {
+                    result.complete(work.call());
+                } catch (Throwable ex) {
+                    result.completeExceptionally(ex);
+                }
+            });
+            return result;
+        }
+
+        <T> void run(Callable<T> work, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+            submit(work).whenComplete((value, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex == null) onSuccess.accept(value);
+                else onError.accept(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            }));
+        }
+    }
+
+    // Hands items produced off the event thread to the UI in batches, with at
+    // most one pending invokeLater at a time so a fast producer cannot flood it.
+    static class EdtBatcher<T> implements Consumer<java.util.List<T>> {
+        private final Consumer<java.util.List<T>> ui;
+        private java.util.List<T> pending = new ArrayList<>();
+        private boolean scheduled;
+
+        EdtBatcher(Consumer<java.util.List<T>> ui) {
+            this.ui = ui;
+        }
+
+        @Override
+        public synchronized void accept(java.util.List<T> items) {
+            pending.addAll(items);
+            if (!scheduled) {
+                scheduled = true;
+                SwingUtilities.invokeLater(this::flush);
+            }
+        }
+
+        private void flush() {
+            java.util.List<T> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new ArrayList<>();
+                scheduled = false;
+            }
+            if (!batch.isEmpty()) ui.accept(batch);
+        }
+    }
+
+    static class Movie {
+        final String title;
+        final String genre;
+        final double rating;
+        final java.util.List<String> showtimes;
+        // Cents.
+        final long price;
+        final String hall;
+
+        Movie(String t, String g, double r, java.util.List<String> s, long p) {
+            this(t, g, r, s, p, null);
+        }
+
+        Movie(String t, String g, double r, java.util.List<String> s, long p, String h) {
+            title = t; genre = g; rating = r; showtimes = Collections.unmodifiableList(new ArrayList<>(s)); price = p; hall = h;
+        }
+    }
+
+    // Movies read from a pipe-delimited file, one per line:
+    //   title|genre|rating|price|showtime,showtime|hall
+    // The hall is optional and blank lines and # comments are skipped. Each load
+    // builds an immutable Snapshot with its views already computed and swaps it
+    // in whole, so readers never lock, sort or scan.
+    static class MovieCatalog {
+        static final long RELOAD_DELAY_MS = 200;
+
+        static final class Snapshot {
+            final long version;
+            final java.util.List<Movie> all;
+            final java.util.List<Movie> byRating;
+            final Map<String, Movie> byTitle;
+            final Map<String, java.util.List<Movie>> byGenre;
+
+            Snapshot(long version, java.util.List<Movie> movies) {
+                this.version = version;
+                all = Collections.unmodifiableList(new ArrayList<>(movies));
+                java.util.List<Movie> rated = new ArrayList<>(movies);
+                rated.sort((a, b) -> Double.compare(b.rating, a.rating));
+                byRating = Collections.unmodifiableList(rated);
+                Map<String, Movie> titles = new HashMap<>();
+                Map<String, java.util.List<Movie>> genres = new TreeMap<>();
+                for (Movie m : movies) {
+                    titles.putIfAbsent(m.title, m);
+                    genres.computeIfAbsent(m.genre, g -> new ArrayList<>()).add(m);
+                }
+                for (Map.Entry<String, java.util.List<Movie>> e : genres.entrySet()) e.setValue(Collections.unmodifiableList(e.getValue()));
+                byTitle = Collections.unmodifiableMap(titles);
+                byGenre = Collections.unmodifiableMap(genres);
+            }
+        }
+
+        private final AtomicLong versions = new AtomicLong();
+        private final java.util.List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+        private volatile Snapshot current = new Snapshot(0, Collections.emptyList());
+
+        Snapshot snapshot() {
+            return current;
+        }
+
+        // Listeners run on the thread that installed the snapshot.
+        void addListener(Consumer<Snapshot> listener) {
+            listeners.add(listener);
+        }
+
+        synchronized Snapshot set(java.util.List<Movie> movies) {
+            Snapshot s = new Snapshot(versions.incrementAndGet(), movies);
+            current = s;
+            for (Consumer<Snapshot> l : listeners) l.accept(s);
+            return s;
+        }
+
+        Snapshot load(Path file) throws IOException {
+            return set(parse(file));
+        }
+
+        static java.util.List<Movie> defaults() {
+            return Arrays.asList(
+                    new Movie("Avengers: Endgame", "Action", 9.1, Arrays.asList("2:00 PM", "7:00 PM"), 24000, "Hall 2"),
+                    new Movie("Inception", "Sci-Fi", 8.8, Arrays.asList("12:00 PM", "9:00 PM"), 20000, "Hall 1"),
+                    new Movie("Joker", "Drama", 8.5, Arrays.asList("6:30 PM", "10:00 PM"), 18000, "Hall 3"),
+                    new Movie("Moana 2", "Animation", 7.9, Arrays.asList("11:00 AM", "5:00 PM"), 15000, "Hall 1"));
+        }
+
+        static java.util.List<Movie> parse(Path file) throws IOException {
+            java.util.List<Movie> movies = new ArrayList<>();
+            Set<String> titles = new HashSet<>();
+            java.util.List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] f = line.split("\\|", -1);
+                try {
+                    if (f.length < 5 || f.length > 6) throw new IllegalArgumentException("expected 5 or 6 fields, found " + f.length);
+                    java.util.List<String> times = new ArrayList<>();
+                    for (String t : f[4].split(",")) if (!t.trim().isEmpty()) times.add(t.trim());
+                    if (times.isEmpty()) throw new IllegalArgumentException("no showtimes");
+                    String title = f[0].trim();
+                    if (title.isEmpty() || !titles.add(title)) throw new IllegalArgumentException("missing or duplicate title '" + title + "'");
+                    String hall = f.length > 5 && !f[5].trim().isEmpty() ? f[5].trim() : null;
+                    movies.add(new Movie(title, f[1].trim(), Double.parseDouble(f[2].trim()), times, Money.parse(f[3]), hall));
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException(file + " line " + (i + 1) + ": " + ex.getMessage(), ex);
+                }
+            }
+            return movies;
+        }
+
+        static void write(Path file, java.util.List<Movie> movies) throws IOException {
+            StringBuilder sb = new StringBuilder("# title|genre|rating|price|showtimes|hall\n");
+            for (Movie m : movies) {
+                sb.append(m.title).append('|').append(m.genre).append('|').append(m.rating).append('|');
+                Money.append(sb, m.price).append('|').append(String.join(",", m.showtimes)).append('|');
+                if (m.hall != null) sb.append(m.hall);
+                sb.append('\n');
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Reloads file whenever it changes. A file that does not parse leaves the
+        // current snapshot in place.
+        void watch(Path file) throws IOException {
+            Path dir = file.toAbsolutePath().getParent();
+            Path name = file.getFileName();
+            WatchService watcher = dir.getFileSystem().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread t = new Thread(() -> {
+                try {
+                    while (true) {
+                        if (!changed(watcher.take(), name)) continue;
+                        // Editors often save in several writes; let them settle first.
+                        Thread.sleep(RELOAD_DELAY_MS);
+                        for (WatchKey k; (k = watcher.poll()) != null; ) changed(k, name);
+                        try {
+                            Snapshot s = load(file);
+                            System.err.println("Reloaded " + s.all.size() + " movies from " + file);
+                        } catch (IOException | RuntimeException ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException ex) {
+                    // stopped
+                }
+            }, "movie-catalog-watch");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private static boolean changed(WatchKey key, Path name) {
+            boolean changed = false;
+            for (WatchEvent<?> e : key.pollEvents()) {
+                if (e.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(e.context())) changed = true;
+            }
+            key.reset();
+            return changed;
+        }
+    }
+
+    static class Booking {
+        String timestamp;
+        String name;
+        String contact;
+        String movie;
+        String showtime;
+        java.util.List<String> seats;
+        long totalCents;
+
+        Booking(String ts, String n, String c, String m, String s, java.util.List<String> seats, long totalCents) {
+            timestamp = ts; name = n; contact = c; movie = m; showtime = s; this.seats = new ArrayList<>(seats); this.totalCents = totalCents;
+        }
+
+        // For loaders that build a fresh seat list per booking: the list is kept
+        // instead of copied, so the caller must not touch it afterwards.
+        static Booking adopt(String ts, String n, String c, String m, String s, java.util.List<String> seats, long totalCents) {
+            Booking b = new Booking(ts, n, c, m, s, Collections.emptyList(), totalCents);
+            b.seats = seats;
+            return b;
+        }
+
+        String toRecord() {
+            StringBuilder sb = new StringBuilder(64 + 4 * seats.size());
+            sb.append(timestamp).append('|').append(name).append('|').append(contact).append('|')
+              .append(movie).append('|').append(showtime).append('|');
+            for (int i = 0; i < seats.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(seats.get(i));
+            }
+            sb.append('|');
+            return Money.append(sb, totalCents).toString();
+        }
+    }
+
+    class SeatSelectionDialog extends JDialog {
+        private java.util.List<String> selectedSeats = new ArrayList<>();
+        private final long[] occupied;
+
+        SeatSelectionDialog(JFrame owner, Movie movie, Screening screening) {
+            super(owner, "Select Seats - " + movie.title + " (" + screening.key + ")", true);
+            long start = System.nanoTime();
+            Hall hall = screening.hall;
+            setSize(Math.max(700, hall.cols * 62), Math.max(500, hall.rows * 44 + 140));
+            setLocationRelativeTo(owner);
+            setLayout(new BorderLayout());
+
+            occupied = screening.occupied();
+
+            JPanel center = new JPanel();
+            center.setLayout(new BoxLayout(center, BoxLayout.Y_AXIS));
+            center.setBorder(new EmptyBorder(12, 12, 12, 12));
+
+            JLabel info = new JLabel("Select seats (click to toggle). Occupied seats are disabled. "
+                    + "Premium seats are outlined in gold, VIP seats in purple.");
+            center.add(info);
+            center.add(Box.createVerticalStrut(10));
+
+            JPanel grid = new JPanel(new GridLayout(hall.rows, hall.cols, 6, 6));
+
+            for (int r = 0; r < hall.rows; r++) {
+                for (int c = 0; c < hall.cols; c++) {
+                    int index = r * hall.cols + c;
+                    if (!hall.isSeat(index)) {
+                        grid.add(new JLabel());
+                        continue;
+                    }
+                    String seat = hall.seatName(index);
+                    JToggleButton tb = new JToggleButton(seat);
+                    tb.setFocusPainted(false);
+                    if (hall.category(index) == SeatCategory.PREMIUM) tb.setBorder(BorderFactory.createLineBorder(new Color(212, 175, 55), 2));
+                    if (hall.category(index) == SeatCategory.VIP) tb.setBorder(BorderFactory.createLineBorder(new Color(128, 0, 160), 2));
+                    if ((occupied[index >>> 6] & (1L << index)) != 0) {
+                        tb.setEnabled(false);
+                        tb.setSelected(true);
+                        tb.setBackground(Color.GRAY);
+                    }
+                    tb.addItemListener(ev -> {
+                        if (!tb.isEnabled()) return;
+                        if (tb.isSelected()) {
+                            selectedSeats.add(seat);
+                        } else {
+                            selectedSeats.remove(seat);
+                        }
+                    });
+                    grid.add(tb);
+                }
+            }
+
+            center.add(grid);
+            add(center, BorderLayout.CENTER);
+
+            JPanel bottom = new JPanel();
+            JButton btnCancel = new JButton("Cancel");
+            JButton btnNext = new JButton("Proceed to Checkout");
+            bottom.add(btnCancel);
+            bottom.add(btnNext);
+            add(bottom, BorderLayout.SOUTH);
+
+            btnCancel.addActionListener(e -> {
+                selectedSeats.clear();
+                dispose();
+            });
+
+            btnNext.addActionListener(e -> {
+                if (selectedSeats.isEmpty()) {
+                    JOptionPane.showMessageDialog(this, "Please select at least one seat.");
+                    return;
+                }
+                dispose();
+            });
+
+            // Until the seat map is on screen, the way a cashier experiences it.
+            addWindowListener(new java.awt.event.WindowAdapter() {
+                @Override
+                public void windowOpened(java.awt.event.WindowEvent e) {
+                    system.metrics.seatMap.since(start);
+                }
+            });
+        }
+
+        java.util.List<String> getSelectedSeats() {
+            return new ArrayList<>(selectedSeats);
+        }
+    }
+
+    static class OccupancyIndex {
+        // The standard hall's grid. Its seat names are also what the booking
+        // formats pack into a single bitmask.
+        static final int ROWS = 6;
+        static final int COLS = 8;
+
+        private final Schedule schedule;
+
+        OccupancyIndex(Schedule schedule) {
+            this.schedule = schedule;
+        }
+
+        static int seatIndex(String seat) {
+            if (seat == null) return -1;
+            seat = seat.trim();
+            if (seat.length() < 2) return -1;
+            int row = seat.charAt(0) - 'A';
+            if (row < 0 || row >= ROWS) return -1;
+            int col = 0;
+            for (int i = 1; i < seat.length(); i++) {
+                char ch = seat.charAt(i);
+                if (ch < '0' || ch > '9') return -1;
+                col = col * 10 + (ch - '0');
+            }
+            if (col < 1 || col > COLS) return -1;
+            return row * COLS + (col - 1);
+        }
+
+        static String seatName(int index) {
+            return (char) ('A' + index / COLS) + String.valueOf(index % COLS + 1);
+        }
+
+        static long toMask(Collection<String> seats) {
+            long mask = 0L;
+            for (String seat : seats) {
+                int index = seatIndex(seat);
+                if (index >= 0) mask |= 1L << index;
+            }
+            return mask;
+        }
+
+        Screening screening(String movie, String showtime) {
+            return schedule.find(movie, showtime);
+        }
+
+        // Records sold seats while loading history; screenings that are no longer
+        // scheduled are recreated from the booking's showtime.
+        void add(String movie, String showtime, Collection<String> seats) {
+            Screening s = schedule.resolve(movie, showtime);
+            s.add(s.hall.toSet(seats, false));
+        }
+
+        void clear() {
+            for (Screening s : schedule.all()) s.clear();
+        }
+    }
+
+    enum SeatCategory {
+        STANDARD('S', 100), PREMIUM('P', 125), VIP('V', 150);
+
+        final char code;
+        // Of the movie's price, unless the pricing file overrides it.
+        final int percent;
+
+        SeatCategory(char code, int percent) {
+            this.code = code;
+            this.percent = percent;
+        }
+
+        static SeatCategory of(char code) {
+            for (SeatCategory c : values()) if (c.code == code) return c;
+            return null;
+        }
+    }
+
+    // A screening room. Each layout row has one character per position: a
+    // SeatCategory code for a seat or '.' for an aisle or gap. Seats are named by
+    // row letter and their number within the row, so gaps do not use up numbers.
+    static final class Hall {
+        final String name;
+        final int rows;
+        final int cols;
+        final int seatCount;
+        private final String[] layout;
+        private final SeatCategory[] cells;
+        private final String[] names;
+        private final Map<String, Integer> index = new HashMap<>();
+
+        Hall(String name, String... layout) {
+            if (layout.length == 0 || layout.length > 26) throw new IllegalArgumentException("hall " + name + " needs 1-26 rows");
+            this.name = name;
+            this.layout = layout.clone();
+            rows = layout.length;
+            int width = 0;
+            for (String row : layout) width = Math.max(width, row.length());
+            if (width > 64) throw new IllegalArgumentException("hall " + name + " is wider than 64 positions");
+            cols = width;
+            cells = new SeatCategory[rows * cols];
+            names = new String[rows * cols];
+            int seats = 0;
+            for (int r = 0; r < rows; r++) {
+                int number = 0;
+                for (int c = 0; c < layout[r].length(); c++) {
+                    char code = layout[r].charAt(c);
+                    if (code == '.' || code == ' ') continue;
+                    SeatCategory category = SeatCategory.of(code);
+                    if (category == null) throw new IllegalArgumentException("hall " + name + ": unknown seat code '" + code + "'");
+                    int cell = r * cols + c;
+                    cells[cell] = category;
+                    names[cell] = (char) ('A' + r) + String.valueOf(++number);
+                    index.put(names[cell], cell);
+                    seats++;
+                }
+            }
+            seatCount = seats;
+        }
+
+        static Hall standard(String name) {
+            String[] layout = new String[OccupancyIndex.ROWS];
+            char[] row = new char[OccupancyIndex.COLS];
+            Arrays.fill(row, SeatCategory.STANDARD.code);
+            Arrays.fill(layout, new String(row));
+            return new Hall(name, layout);
+        }
+
+        java.util.List<String> layout() {
+            return Arrays.asList(layout);
+        }
+
+        int cells() {
+            return rows * cols;
+        }
+
+        int words() {
+            return (rows * cols + 63) >>> 6;
+        }
+
+        boolean isSeat(int cell) {
+            return cells[cell] != null;
+        }
+
+        SeatCategory category(int cell) {
+            return cells[cell];
+        }
+
+        String seatName(int cell) {
+            return names[cell];
+        }
+
+        int seatIndex(String seat) {
+            Integer cell = seat == null ? null : index.get(seat.trim());
+            return cell == null ? -1 : cell;
+        }
+
+        // One bit per cell. Strict conversion returns null for an unknown seat;
+        // otherwise unknown seats are skipped.
+        long[] toSet(Collection<String> seats, boolean strict) {
+            long[] set = new long[words()];
+            for (String seat : seats) {
+                int cell = seatIndex(seat);
+                if (cell < 0) {
+                    if (strict) return null;
+                    continue;
+                }
+                set[cell >>> 6] |= 1L << cell;
+            }
+            return set;
+        }
+
+        java.util.List<String> seatNames(long[] set) {
+            java.util.List<String> out = new ArrayList<>();
+            for (int w = 0; w < set.length; w++) {
+                for (long m = set[w]; m != 0L; m &= m - 1) out.add(names[(w << 6) + Long.numberOfTrailingZeros(m)]);
+            }
+            return out;
+        }
+
+        java.util.List<String> seatNames() {
+            java.util.List<String> out = new ArrayList<>(seatCount);
+            for (String n : names) if (n != null) out.add(n);
+            return out;
+        }
+
+        // The best n free seats for a party sitting together, or null. Candidates
+        // are rectangles of rows and columns with no taken seat inside (aisles are
+        // fine) and at least n seats: fewer rows win, then fewer seats left over,
+        // then the rectangle nearest the middle of the hall three fifths of the way
+        // back. A row is one long of seats and one of taken seats, so a rectangle
+        // grows a column at a time with a bit test. The winner's front rows are
+        // filled and the last row gets the rest, centred.
+        long[] bestBlock(long[] taken, int n) {
+            if (n <= 0 || n > seatCount) return null;
+            long[] seat = new long[rows], blocked = new long[rows];
+            for (int cell = 0; cell < cells.length; cell++) {
+                if (cells[cell] == null) continue;
+                int r = cell / cols, c = cell % cols;
+                seat[r] |= 1L << c;
+                if ((taken[cell >>> 6] & (1L << cell)) != 0L) blocked[r] |= 1L << c;
+            }
+            int[] perCol = new int[cols];
+            int bestR0 = -1, bestR1 = 0, bestC0 = 0, bestC1 = 0;
+            long bestScore = Long.MAX_VALUE;
+            for (int r0 = 0; r0 < rows; r0++) {
+                Arrays.fill(perCol, 0);
+                long wall = 0L;
+                for (int r1 = r0; r1 < rows && (bestR0 < 0 || r1 - r0 <= bestR1 - bestR0); r1++) {
+                    wall |= blocked[r1];
+                    for (long m = seat[r1]; m != 0L; m &= m - 1) perCol[Long.numberOfTrailingZeros(m)]++;
+                    for (int c0 = 0; c0 < cols; c0++) {
+                        if (perCol[c0] == 0 || (wall >>> c0 & 1L) != 0L) continue;
+                        int count = 0;
+                        for (int c1 = c0; c1 < cols && (wall >>> c1 & 1L) == 0L; c1++) {
+                            count += perCol[c1];
+                            if (count < n) continue;
+                            long distance = Math.abs(c0 + c1 - (cols - 1)) + Math.abs(r0 + r1 - 6 * (rows - 1) / 5);
+                            long score = (long) (r1 - r0) << 42 | (long) (count - n) << 21 | distance;
+                            if (score < bestScore) {
+                                bestScore = score;
+                                bestR0 = r0; bestR1 = r1; bestC0 = c0; bestC1 = c1;
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+            if (bestR0 < 0) return null;
+            long window = (-1L >>> (63 - bestC1 + bestC0)) << bestC0;
+            long[] set = new long[words()];
+            for (int r = bestR0, left = n; r <= bestR1 && left > 0; r++) {
+                long row = seat[r] & window;
+                int k = Math.min(left, Long.bitCount(row));
+                for (int skip = (Long.bitCount(row) - k) / 2; skip > 0; skip--) row &= row - 1;
+                for (int i = 0; i < k; i++, row &= row - 1) {
+                    int cell = r * cols + Long.numberOfTrailingZeros(row);
+                    set[cell >>> 6] |= 1L << cell;
+                }
+                left -= k;
+            }
+            return set;
+        }
+    }
+
+    // One showing of a movie in a hall. Occupancy is a bitset over the hall's
+    // cells, a few words per screening, so months of schedule stay small.
+    static final class Screening {
+        static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("h:mm a", Locale.US);
+
+        final String movie;
+        final Hall hall;
+        final LocalDate date;
+        final String time;
+        final String key;
+        final LocalDateTime start;
+        // Minutes after midnight the screening starts, or -1 if the time does not parse.
+        final int minuteOfDay;
+        private final AtomicLongArray occupied;
+
+        Screening(String movie, Hall hall, LocalDate date, String time) {
+            this.movie = movie;
+            this.hall = hall;
+            this.date = date;
+            this.time = time;
+            key = key(date, time, hall.name);
+            start = start(date, time);
+            minuteOfDay = minuteOfDay(time);
+            occupied = new AtomicLongArray(hall.words());
+        }
+
+        private static int minuteOfDay(String time) {
+            try {
+                LocalTime t = LocalTime.parse(time.trim().toUpperCase(Locale.US), TIME);
+                return t.getHour() * 60 + t.getMinute();
+            } catch (DateTimeParseException ex) {
+                return -1;
+            }
+        }
+
+        // What bookings store as their showtime. Undated screenings keep the bare
+        // time that bookings made before the schedule existed carry.
+        static String key(LocalDate date, String time, String hall) {
+            return date == null ? time : date + " " + time + ", " + hall;
+        }
+
+        private static LocalDateTime start(LocalDate date, String time) {
+            if (date == null) return null;
+            try {
+                return date.atTime(LocalTime.parse(time.trim().toUpperCase(Locale.US), TIME));
+            } catch (DateTimeParseException ex) {
+                return date.atStartOfDay();
+            }
+        }
+
+        // Takes every seat in set or none of them. Words are claimed in order and
+        // rolled back if a later one conflicts.
+        boolean tryAcquire(long[] set) {
+            for (int w = 0; w < set.length; w++) {
+                long bits = set[w];
+                if (bits == 0L) continue;
+                while (true) {
+                    long current = occupied.get(w);
+                    if ((current & bits) != 0L) {
+                        for (int u = 0; u < w; u++) {
+                            if (set[u] != 0L) occupied.getAndAccumulate(u, set[u], (a, b) -> a & ~b);
+                        }
+                        return false;
+                    }
+                    if (occupied.compareAndSet(w, current, current | bits)) break;
+                }
+            }
+            return true;
+        }
+
+        void release(long[] set) {
+            for (int w = 0; w < set.length; w++) {
+                if (set[w] != 0L) occupied.getAndAccumulate(w, set[w], (a, b) -> a & ~b);
+            }
+        }
+
+        void add(long[] set) {
+            for (int w = 0; w < set.length; w++) {
+                if (set[w] != 0L) occupied.getAndAccumulate(w, set[w], (a, b) -> a | b);
+            }
+        }
+
+        long[] occupied() {
+            long[] out = new long[occupied.length()];
+            for (int w = 0; w < out.length; w++) out[w] = occupied.get(w);
+            return out;
+        }
+
+        long[] bestBlock(int n) {
+            return hall.bestBlock(occupied(), n);
+        }
+
+        int free() {
+            int taken = 0;
+            for (int w = 0; w < occupied.length(); w++) taken += Long.bitCount(occupied.get(w));
+            return hall.seatCount - taken;
+        }
+
+        void clear() {
+            for (int w = 0; w < occupied.length(); w++) occupied.set(w, 0L);
+        }
+    }
+
+    // Halls and dated screenings. Screenings are looked up by movie and key in
+    // one hash probe; each movie's planned screenings are kept as an immutable
+    // list in start order that plan() replaces whole.
+    static class Schedule {
+        private static final java.util.regex.Pattern KEY = java.util.regex.Pattern.compile("(\\d{4}-\\d{2}-\\d{2}) (.+), (.+)");
+        private static final Comparator<Screening> ORDER = Comparator.comparing((Screening s) -> s.start).thenComparing(s -> s.hall.name);
+
+        private final Map<String, Hall> halls = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Screening> screenings = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, java.util.List<Screening>> byMovie = new ConcurrentHashMap<>();
+        private volatile Hall defaultHall = Hall.standard("Hall 1");
+
+        Hall addHall(Hall hall) {
+            if (halls.isEmpty()) defaultHall = hall;
+            halls.put(hall.name, hall);
+            return hall;
+        }
+
+        Hall hall(String name) {
+            return halls.get(name);
+        }
+
+        Collection<Hall> halls() {
+            return halls.values();
+        }
+
+        Hall defaultHall() {
+            return defaultHall;
+        }
+
+        Screening add(String movie, Hall hall, LocalDate date, String time) {
+            Screening s = new Screening(movie, hall, date, time);
+            Screening existing = screenings.putIfAbsent(slot(movie, s.key), s);
+            return existing != null ? existing : s;
+        }
+
+        // Offers movie's daily showtimes in hall for days days from from. Screenings
+        // that drop out of the plan are no longer offered but stay resolvable: a
+        // seat dialog or hold may still point at one, and a fresh Screening for
+        // the same slot would let its seats be sold a second time.
+        void plan(Movie movie, Hall hall, LocalDate from, int days) {
+            java.util.List<Screening> planned = new ArrayList<>(days * movie.showtimes.size());
+            for (int d = 0; d < days; d++) {
+                for (String time : movie.showtimes) planned.add(add(movie.title, hall, from.plusDays(d), time));
+            }
+            planned.sort(ORDER);
+            byMovie.put(movie.title, Collections.unmodifiableList(planned));
+        }
+
+        void unplan(String movie) {
+            byMovie.remove(movie);
+        }
+
+        Set<String> plannedMovies() {
+            return new HashSet<>(byMovie.keySet());
+        }
+
+        Screening find(String movie, String key) {
+            return key == null ? null : screenings.get(slot(movie, key));
+        }
+
+        // Like find, but rebuilds screenings that are not (or no longer) in the
+        // schedule from the key itself.
+        Screening resolve(String movie, String key) {
+            Screening s = find(movie, key);
+            if (s != null) return s;
+            java.util.regex.Matcher m = KEY.matcher(key);
+            if (m.matches()) {
+                Hall hall = halls.get(m.group(3));
+                if (hall != null) return add(movie, hall, LocalDate.parse(m.group(1)), m.group(2));
+            }
+            Screening legacy = new Screening(movie, defaultHall, null, key);
+            Screening existing = screenings.putIfAbsent(slot(movie, key), legacy);
+            return existing != null ? existing : legacy;
+        }
+
+        // Planned screenings of movie starting at or after from, in start order.
+        java.util.List<Screening> upcoming(String movie, LocalDateTime from) {
+            java.util.List<Screening> planned = byMovie.getOrDefault(movie, Collections.emptyList());
+            int lo = 0, hi = planned.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (planned.get(mid).start.isBefore(from)) lo = mid + 1;
+                else hi = mid;
+            }
+            return planned.subList(lo, planned.size());
+        }
+
+        Collection<Screening> all() {
+            return screenings.values();
+        }
+
+        private static String slot(String movie, String key) {
+            return movie + '\u0000' + key;
+        }
+    }
+
+    static class SeatReservations implements Closeable {
+        static final long HOLD_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+        static final class Hold {
+            final long id;
+            final Screening screening;
+            final String movie;
+            final String showtime;
+            final long[] seats;
+            final long expiresAt;
+
+            Hold(long id, Screening screening, long[] seats, long expiresAt) {
+                this.id = id; this.screening = screening; this.seats = seats; this.expiresAt = expiresAt;
+                movie = screening.movie;
+                showtime = screening.key;
+            }
+
+            java.util.List<String> seatNames() {
+                return screening.hall.seatNames(seats);
+            }
+        }
+
+        private final ConcurrentHashMap<Long, Hold> holds = new ConcurrentHashMap<>();
+        private final AtomicLong nextId = new AtomicLong();
+        private final ScheduledExecutorService expiry;
+
+        SeatReservations() {
+            expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "seat-hold-expiry");
+                t.setDaemon(true);
+                return t;
+            });
+            expiry.scheduleWithFixedDelay(this::expireHolds, 1, 1, TimeUnit.SECONDS);
+        }
+
+        Hold hold(Screening s, Collection<String> seats, long ttlMillis) {
+            long[] set = s.hall.toSet(seats, true);
+            return set == null || seats.isEmpty() ? null : hold(s, set, ttlMillis);
+        }
+
+        // Holds the best block of n seats. The search works on a snapshot of the
+        // seat map, so a seat sold in the meantime sends it round again.
+        Hold holdBlock(Screening s, int n, long ttlMillis) {
+            for (int attempt = 0; attempt < 8; attempt++) {
+                long[] set = s.bestBlock(n);
+                if (set == null) return null;
+                Hold h = hold(s, set, ttlMillis);
+                if (h != null) return h;
+            }
+            return null;
+        }
+
+        Hold hold(Screening s, long[] set, long ttlMillis) {
+            if (!s.tryAcquire(set)) return null;
+            Hold h = new Hold(nextId.incrementAndGet(), s, set, System.currentTimeMillis() + ttlMillis);
+            holds.put(h.id, h);
+            return h;
+        }
+
+        // Turns the hold into a sale. If the hold already expired, the seats are
+        // re-acquired only when nobody else has taken them in the meantime.
+        boolean confirm(Hold h) {
+            if (holds.remove(h.id, h)) return true;
+            return h.screening.tryAcquire(h.seats);
+        }
+
+        void release(Hold h) {
+            if (holds.remove(h.id, h)) h.screening.release(h.seats);
+        }
+
+        void expireHolds() {
+            long now = System.currentTimeMillis();
+            for (Hold h : holds.values()) {
+                if (h.expiresAt <= now) release(h);
+            }
+        }
+
+        Hold find(long id) {
+            return holds.get(id);
+        }
+
+        // Stops the expiry thread; holds still open keep their seats.
+        @Override
+        public void close() {
+            expiry.shutdownNow();
+        }
+    }
+
+    // Running sales totals per movie, per screening, per sales day and per hour
+    // of day, fed by every committed booking and by the startup load. Counters
+    // are LongAdders and money is summed in cents, so concurrent checkouts never
+    // share a lock and a dashboard reads totals without touching the bookings.
+    static class SalesAnalytics {
+        static class Totals {
+            final LongAdder bookings = new LongAdder();
+            final LongAdder tickets = new LongAdder();
+            final LongAdder cents = new LongAdder();
+
+            void add(Booking b) {
+                bookings.increment();
+                tickets.add(b.seats.size());
+                cents.add(b.totalCents);
+            }
+
+            String revenue() {
+                return Money.format(cents.sum());
+            }
+
+            void write(DataOutputStream out) throws IOException {
+                out.writeLong(bookings.sum());
+                out.writeLong(tickets.sum());
+                out.writeLong(cents.sum());
+            }
+
+            void read(DataInputStream in) throws IOException {
+                bookings.add(in.readLong());
+                tickets.add(in.readLong());
+                cents.add(in.readLong());
+            }
+        }
+
+        static final class ScreeningTotals extends Totals {
+            final String movie;
+            final String showtime;
+            final int capacity;
+
+            ScreeningTotals(String movie, String showtime, int capacity) {
+                this.movie = movie;
+                this.showtime = showtime;
+                this.capacity = capacity;
+            }
+
+            double occupancy() {
+                return capacity == 0 ? 0 : tickets.sum() / (double) capacity;
+            }
+        }
+
+        // capacity counts the seats of the movie's screenings that sold at least
+        // one ticket, so occupancy is measured against screenings actually in use.
+        static final class MovieTotals extends Totals {
+            final String movie;
+            final LongAdder capacity = new LongAdder();
+            final ConcurrentHashMap<String, ScreeningTotals> screenings = new ConcurrentHashMap<>();
+
+            MovieTotals(String movie) {
+                this.movie = movie;
+            }
+
+            double occupancy() {
+                long seats = capacity.sum();
+                return seats == 0 ? 0 : tickets.sum() / (double) seats;
+            }
+        }
+
+        private final Schedule schedule;
+        final Totals all = new Totals();
+        private final ConcurrentHashMap<String, MovieTotals> movies = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Totals> days = new ConcurrentHashMap<>();
+        private final LongAdder[] hours = new LongAdder[24];
+
+        SalesAnalytics(Schedule schedule) {
+            this.schedule = schedule;
+            for (int h = 0; h < hours.length; h++) hours[h] = new LongAdder();
+        }
+
+        void add(Booking b) {
+            all.add(b);
+            MovieTotals movie = movies.computeIfAbsent(b.movie, MovieTotals::new);
+            movie.add(b);
+            movie.screenings.computeIfAbsent(b.showtime, showtime -> {
+                int capacity = schedule.resolve(b.movie, showtime).hall.seatCount;
+                movie.capacity.add(capacity);
+                return new ScreeningTotals(b.movie, showtime, capacity);
+            }).add(b);
+            // Timestamps are yyyy-MM-dd HH:mm:ss; anything else only counts in the totals above.
+            String ts = b.timestamp;
+            if (ts.length() >= 13 && ts.charAt(10) == ' ') {
+                days.computeIfAbsent(ts.substring(0, 10), day -> new Totals()).add(b);
+                int hour = (ts.charAt(11) - '0') * 10 + (ts.charAt(12) - '0');
+                if (hour >= 0 && hour < 24) hours[hour].add(b.seats.size());
+            }
+        }
+
+        void addAll(java.util.List<Booking> batch) {
+            for (Booking b : batch) add(b);
+        }
+
+        void clear() {
+            all.bookings.reset();
+            all.tickets.reset();
+            all.cents.reset();
+            movies.clear();
+            days.clear();
+            for (LongAdder h : hours) h.reset();
+        }
+
+        java.util.List<MovieTotals> movies() {
+            java.util.List<MovieTotals> out = new ArrayList<>(movies.values());
+            out.sort(Comparator.comparing(m -> m.movie));
+            return out;
+        }
+
+        MovieTotals movie(String title) {
+            return movies.get(title);
+        }
+
+        java.util.List<ScreeningTotals> screenings() {
+            java.util.List<ScreeningTotals> out = new ArrayList<>();
+            for (MovieTotals m : movies.values()) out.addAll(m.screenings.values());
+            return out;
+        }
+
+        // Sales days in ascending order.
+        SortedMap<String, Totals> days() {
+            return new TreeMap<>(days);
+        }
+
+        // Tickets sold by the hour of day they were booked.
+        long[] hours() {
+            long[] out = new long[hours.length];
+            for (int h = 0; h < out.length; h++) out[h] = hours[h].sum();
+            return out;
+        }
+
+        double occupancy() {
+            long seats = 0;
+            for (MovieTotals m : movies.values()) seats += m.capacity.sum();
+            return seats == 0 ? 0 : all.tickets.sum() / (double) seats;
+        }
+
+        // Checkpoint form of every counter; the instance must not be changing while
+        // it is written.
+        void write(DataOutputStream out) throws IOException {
+            all.write(out);
+            out.writeInt(movies.size());
+            for (MovieTotals m : movies.values()) {
+                out.writeUTF(m.movie);
+                m.write(out);
+                out.writeLong(m.capacity.sum());
+                out.writeInt(m.screenings.size());
+                for (ScreeningTotals s : m.screenings.values()) {
+                    out.writeUTF(s.showtime);
+                    out.writeInt(s.capacity);
+                    s.write(out);
+                }
+            }
+            out.writeInt(days.size());
+            for (Map.Entry<String, Totals> d : days.entrySet()) {
+                out.writeUTF(d.getKey());
+                d.getValue().write(out);
+            }
+            for (LongAdder h : hours) out.writeLong(h.sum());
+        }
+
+        // Restores what write() stored into an empty instance.
+        void read(DataInputStream in) throws IOException {
+            all.read(in);
+            for (int i = in.readInt(); i > 0; i--) {
+                MovieTotals m = movies.computeIfAbsent(in.readUTF(), MovieTotals::new);
+                m.read(in);
+                m.capacity.add(in.readLong());
+                for (int j = in.readInt(); j > 0; j--) {
+                    String showtime = in.readUTF();
+                    ScreeningTotals s = new ScreeningTotals(m.movie, showtime, in.readInt());
+                    s.read(in);
+                    m.screenings.put(showtime, s);
+                }
+            }
+            for (int i = in.readInt(); i > 0; i--) days.computeIfAbsent(in.readUTF(), day -> new Totals()).read(in);
+            for (LongAdder h : hours) h.add(in.readLong());
+        }
+    }
+
+    // Latency histograms and counters for the booking hot paths. Recording is a few
+    // LongAdder updates and never allocates; percentiles are computed when read.
+    // The values are published as JMX MBeans under cinema:*, optionally logged
+    // every cinema.metrics.log.seconds, and emitted as JFR events when
+    // CinemaEvents is on the class path of a JDK with Flight Recorder.
+    static final class Metrics {
+        // Told about every timed operation; CinemaEvents turns them into JFR events.
+        interface Listener {
+            void timed(String operation, long nanos);
+        }
+
+        static final Listener EVENTS = events();
+
+        // Log-linear buckets in the style of HdrHistogram: exact below 32 ns, then 32
+        // sub-buckets per power of two, so a reported value is within about 3% of
+        // the recorded one. Values above about 73 minutes land in the last bucket.
+        static final class Histogram {
+            static final int SUB_BITS = 5;
+            static final int SUB = 1 << SUB_BITS;
+            static final long LIMIT = (1L << 42) - 1;
+            static final int BUCKETS = index(LIMIT) + 1;
+
+            final String name;
+            private final LongAdder[] counts = new LongAdder[BUCKETS];
+            private final LongAdder count = new LongAdder();
+            private final LongAdder total = new LongAdder();
+            private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+            Histogram(String name) {
+                this.name = name;
+                for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+            }
+
+            static int index(long nanos) {
+                if (nanos < SUB) return (int) Math.max(0L, nanos);
+                int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+                return ((shift + 1) << SUB_BITS) + (int) ((nanos >>> shift) - SUB);
+            }
+
+            // Largest value that falls into bucket i.
+            static long highest(int i) {
+                if (i < 2 * SUB) return i;
+                int shift = (i >>> SUB_BITS) - 1;
+                return ((long) ((i & (SUB - 1)) + SUB) << shift) + (1L << shift) - 1;
+            }
+
+            void record(long nanos) {
+                counts[index(Math.min(nanos, LIMIT))].increment();
+                count.increment();
+                total.add(nanos);
+                max.accumulate(nanos);
+            }
+
+            // Records the time since start, a System.nanoTime() value.
+            void since(long start) {
+                long nanos = System.nanoTime() - start;
+                record(nanos);
+                if (EVENTS != null) EVENTS.timed(name, nanos);
+            }
+
+            long count() {
+                return count.sum();
+            }
+
+            long mean() {
+                long n = count.sum();
+                return n == 0 ? 0 : total.sum() / n;
+            }
+
+            long max() {
+                return max.get();
+            }
+
+            // Values at each quantile (0..1), from one pass over the buckets.
+            long[] percentiles(double... quantiles) {
+                long[] snapshot = new long[BUCKETS];
+                long n = 0;
+                for (int i = 0; i < BUCKETS; i++) n += snapshot[i] = counts[i].sum();
+                long[] out = new long[quantiles.length];
+                if (n == 0) return out;
+                for (int q = 0; q < quantiles.length; q++) {
+                    long rank = Math.max(1, (long) Math.ceil(quantiles[q] * n));
+                    long seen = 0;
+                    int i = 0;
+                    while (i < BUCKETS - 1 && (seen += snapshot[i]) < rank) i++;
+                    out[q] = Math.min(highest(i), max.get());
+                }
+                return out;
+            }
+        }
+
+        final Histogram load = new Histogram("load");
+        final Histogram seatMap = new Histogram("seatMap");
+        final Histogram checkout = new Histogram("checkout");
+        final Histogram append = new Histogram("append");
+        final Histogram write = new Histogram("write");
+        final Histogram flush = new Histogram("flush");
+        final Histogram export = new Histogram("export");
+        final Histogram checkpoint = new Histogram("checkpoint");
+        final LongAdder bookings = new LongAdder();
+        final LongAdder tickets = new LongAdder();
+        final LongAdder conflicts = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        private final java.util.List<ObjectName> registered = new ArrayList<>();
+        private ScheduledExecutorService logger;
+
+        private static Listener events() {
+            try {
+                return (Listener) Class.forName("CinemaEvents").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                return null;
+            }
+        }
+
+        java.util.List<Histogram> histograms() {
+            return Arrays.asList(load, seatMap, checkout, append, write, flush, export, checkpoint);
+        }
+
+        // One line per histogram that has recorded anything, times in milliseconds.
+        String dump() {
+            StringBuilder sb = new StringBuilder();
+            for (Histogram h : histograms()) {
+                if (h.count() == 0) continue;
+                long[] p = h.percentiles(0.5, 0.9, 0.99, 0.999);
+                sb.append(String.format(Locale.US, "%-10s n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms%n",
+                        h.name, h.count(), h.mean() / 1e6, p[0] / 1e6, p[1] / 1e6, p[2] / 1e6, p[3] / 1e6, h.max() / 1e6));
+            }
+            sb.append(String.format(Locale.US, "bookings=%d tickets=%d conflicts=%d journal batches=%d bytes=%d%n",
+                    bookings.sum(), tickets.sum(), conflicts.sum(), batches.sum(), bytes.sum()));
+            return sb.toString();
+        }
+
+        // Registers cinema:type=Latency,name=<histogram> and cinema:type=Counters.
+        void register() {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                for (Histogram h : histograms()) {
+                    Bean bean = new Bean("Latency of " + h.name + " in microseconds")
+                            .add("Count", h::count)
+                            .add("MeanMicros", () -> h.mean() / 1000)
+                            .add("P50Micros", () -> h.percentiles(0.5)[0] / 1000)
+                            .add("P90Micros", () -> h.percentiles(0.9)[0] / 1000)
+                            .add("P99Micros", () -> h.percentiles(0.99)[0] / 1000)
+                            .add("P999Micros", () -> h.percentiles(0.999)[0] / 1000)
+                            .add("MaxMicros", () -> h.max() / 1000);
+                    register(server, new ObjectName("cinema:type=Latency,name=" + h.name), bean);
+                }
+                register(server, new ObjectName("cinema:type=Counters"), new Bean("Booking counters")
+                        .add("Bookings", bookings::sum)
+                        .add("Tickets", tickets::sum)
+                        .add("Conflicts", conflicts::sum)
+                        .add("JournalBatches", batches::sum)
+                        .add("JournalBytes", bytes::sum));
+            } catch (JMException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        private void register(MBeanServer server, ObjectName name, Bean bean) throws JMException {
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(bean, name);
+            registered.add(name);
+        }
+
+        // Prints dump() to stderr every cinema.metrics.log.seconds (60 by default, 0
+        // turns it off) when something new was recorded.
+        void startLog() {
+            long seconds = Long.getLong("cinema.metrics.log.seconds", 60);
+            if (seconds <= 0 || logger != null) return;
+            logger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-log");
+                t.setDaemon(true);
+                return t;
+            });
+            long[] logged = {-1};
+            logger.scheduleWithFixedDelay(() -> {
+                long n = 0;
+                for (Histogram h : histograms()) n += h.count();
+                if (n == logged[0]) return;
+                logged[0] = n;
+                System.err.print("[metrics] " + Instant.now() + System.lineSeparator() + dump());
+            }, seconds, seconds, TimeUnit.SECONDS);
+        }
+
+        void close() {
+            if (logger != null) logger.shutdown();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            registered.clear();
+        }
+
+        // Read-only MBean over a fixed list of long attributes.
+        private static final class Bean implements DynamicMBean {
+            private final String description;
+            private final Map<String, java.util.function.LongSupplier> attributes = new LinkedHashMap<>();
+
+            Bean(String description) {
+                this.description = description;
+            }
+
+            Bean add(String name, java.util.function.LongSupplier value) {
+                attributes.put(name, value);
+                return this;
+            }
+
+            @Override
+            public Object getAttribute(String name) throws AttributeNotFoundException {
+                java.util.function.LongSupplier value = attributes.get(name);
+                if (value == null) throw new AttributeNotFoundException(name);
+                return value.getAsLong();
+            }
+
+            @Override
+            public AttributeList getAttributes(String[] names) {
+                AttributeList out = new AttributeList();
+                for (String name : names) {
+                    java.util.function.LongSupplier value = attributes.get(name);
+                    if (value != null) out.add(new Attribute(name, value.getAsLong()));
+                }
+                return out;
+            }
+
+            @Override
+            public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+                throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+            }
+
+            @Override
+            public AttributeList setAttributes(AttributeList attributes) {
+                return new AttributeList();
+            }
+
+            @Override
+            public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+                throw new ReflectionException(new NoSuchMethodException(action));
+            }
+
+            @Override
+            public MBeanInfo getMBeanInfo() {
+                MBeanAttributeInfo[] info = new MBeanAttributeInfo[attributes.size()];
+                int i = 0;
+                for (String name : attributes.keySet()) info[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+                return new MBeanInfo(getClass().getName(), description, info, null, null, null);
+            }
+        }
+    }
+
+    // Compacted booking state next to the journal, so startup does not replay every
+    // booking ever sold:
+    //   <name>.checkpoint     this manifest
+    //   <name>.hot-N.bin      bookings of current screenings, loaded at startup
+    //   <name>.cold-N.bin     bookings of archived screenings, loaded with history
+    // The manifest also holds what replaying those files would rebuild: the seats
+    // sold per hot screening and the sales totals of every booking in them. Before
+    // a checkpoint the journal is rotated to <journal>.N; the manifest records the
+    // last N it covers, and only later segments and the live journal are replayed.
+    static final class BookingCheckpoint {
+        static final int MAGIC = 0x43434B50;
+        static final int VERSION = 1;
+
+        static final class Segment {
+            final String file;
+            final long count;
+
+            Segment(String file, long count) {
+                this.file = file;
+                this.count = count;
+            }
+        }
+
+        long seq;
+        String hot;
+        long hotCount;
+        final java.util.List<Segment> cold = new ArrayList<>();
+        final Map<Screening, long[]> seats = new HashMap<>();
+
+        // Screening occupancy is resolved against schedule; sales receives the totals.
+        static BookingCheckpoint read(Path file, Schedule schedule, SalesAnalytics sales) throws IOException {
+            BookingCheckpoint cp = new BookingCheckpoint();
+            try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16), new CRC32())) {
+                DataInputStream in = new DataInputStream(checked);
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a booking checkpoint: " + file);
+                cp.seq = in.readLong();
+                String hot = in.readUTF();
+                cp.hot = hot.isEmpty() ? null : hot;
+                cp.hotCount = in.readLong();
+                for (int i = in.readInt(); i > 0; i--) cp.cold.add(new Segment(in.readUTF(), in.readLong()));
+                for (int i = in.readInt(); i > 0; i--) {
+                    Screening s = schedule.resolve(in.readUTF(), in.readUTF());
+                    long[] words = new long[in.readInt()];
+                    for (int w = 0; w < words.length; w++) words[w] = in.readLong();
+                    if (words.length == s.hall.words()) cp.seats.put(s, words);
+                    else System.err.println("Ignoring checkpointed seats of " + s.movie + " " + s.key + ": hall layout changed");
+                }
+                sales.read(in);
+                long crc = checked.getChecksum().getValue();
+                if (in.readLong() != crc) throw new IOException("Booking checkpoint is corrupt: " + file);
+            }
+            return cp;
+        }
+
+        // Written to a temp file and renamed, so a crash leaves the previous manifest.
+        void write(Path file, SalesAnalytics sales) throws IOException {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos, 1 << 16), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(seq);
+                out.writeUTF(hot == null ? "" : hot);
+                out.writeLong(hotCount);
+                out.writeInt(cold.size());
+                for (Segment s : cold) {
+                    out.writeUTF(s.file);
+                    out.writeLong(s.count);
+                }
+                out.writeInt(seats.size());
+                for (Map.Entry<Screening, long[]> e : seats.entrySet()) {
+                    out.writeUTF(e.getKey().movie);
+                    out.writeUTF(e.getKey().key);
+                    out.writeInt(e.getValue().length);
+                    for (long w : e.getValue()) out.writeLong(w);
+                }
+                sales.write(out);
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                fos.getChannel().force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // A binary booking file under construction; nothing is visible under the
+        // final name until finish().
+        static final class SegmentWriter implements Closeable {
+            final Path file;
+            final Path tmp;
+            private final BinaryBookingFormat format = new BinaryBookingFormat();
+            private final FileOutputStream fos;
+            private final BufferedOutputStream out;
+            long count;
+
+            SegmentWriter(Path file) throws IOException {
+                this.file = file;
+                tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                fos = new FileOutputStream(tmp.toFile());
+                out = new BufferedOutputStream(fos, 1 << 16);
+                out.write(format.header());
+            }
+
+            void write(Booking b) throws IOException {
+                out.write(format.encode(b));
+                count++;
+            }
+
+            // Renames the file into place, or drops it when it holds no bookings.
+            boolean finish() throws IOException {
+                out.flush();
+                fos.getChannel().force(true);
+                out.close();
+                if (count == 0) {
+                    Files.delete(tmp);
+                    return false;
+                }
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    // Reads the pipe-delimited history through memory-mapped chunks split at line
+    // boundaries. Fields are located by byte offsets and only decoded on demand.
+    static class BookingLoader {
+        static final int FIELDS = 7;
+        static final long MAX_CHUNK = 1L << 30;
+        static final long PARALLEL_THRESHOLD = 8L << 20;
+        static final int LOAD_BATCH = 5000;
+
+        interface Sink {
+            void accept(Record r);
+        }
+
+        static int defaultParallelism() {
+            return Integer.getInteger("cinema.load.parallelism", Runtime.getRuntime().availableProcessors());
+        }
+
+        static long stream(Path file, int parallelism, Consumer<java.util.List<Booking>> batches) throws IOException {
+            return stream(file, parallelism, batches, null);
+        }
+
+        // Materializes every record and hands them to batches in file order;
+        // batches is always called from the calling thread. Non-blank lines that
+        // are not a booking (too few fields, or a total that is not an amount)
+        // are skipped and counted in malformed when it is given.
+        static long stream(Path file, int parallelism, Consumer<java.util.List<Booking>> batches, LongAdder malformed) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                long[] bounds = split(ch, parallelism);
+                int chunks = bounds.length - 1;
+                if (chunks <= 1 || parallelism <= 1) {
+                    Collector out = new Collector(batches);
+                    Record r = new Record();
+                    for (int i = 0; i < chunks; i++) parseChunk(ch, bounds[i], bounds[i + 1], r, out, malformed);
+                    out.flush();
+                    return out.count;
+                }
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, chunks));
+                try {
+                    java.util.List<Future<java.util.List<Booking>>> parts = new ArrayList<>(chunks);
+                    for (int i = 0; i < chunks; i++) {
+                        long from = bounds[i], to = bounds[i + 1];
+                        parts.add(pool.submit(() -> {
+                            java.util.List<Booking> out = new ArrayList<>();
+                            parseChunk(ch, from, to, new Record(), rec -> out.add(rec.toBooking()), malformed);
+                            return out;
+                        }));
+                    }
+                    long count = 0;
+                    for (Future<java.util.List<Booking>> part : parts) {
+                        java.util.List<Booking> chunk = part.get();
+                        count += chunk.size();
+                        batches.accept(chunk);
+                    }
+                    return count;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while loading bookings");
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new IOException(cause);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        }
+
+        private static final class Collector implements Sink {
+            private final Consumer<java.util.List<Booking>> batches;
+            private java.util.List<Booking> batch = new ArrayList<>();
+            long count;
+
+            Collector(Consumer<java.util.List<Booking>> batches) {
+                this.batches = batches;
+            }
+
+            @Override
+            public void accept(Record r) {
+                batch.add(r.toBooking());
+                count++;
+                if (batch.size() == LOAD_BATCH) flush();
+            }
+
+            void flush() {
+                if (batch.isEmpty()) return;
+                batches.accept(batch);
+                batch = new ArrayList<>();
+            }
+        }
+
+        private static long[] split(FileChannel ch, int parallelism) throws IOException {
+            long size = ch.size();
+            if (size == 0) return new long[]{0L};
+            int chunks = (int) Math.max((size + MAX_CHUNK - 1) / MAX_CHUNK,
+                    size >= PARALLEL_THRESHOLD ? Math.max(1, parallelism) : 1);
+            long[] bounds = new long[chunks + 1];
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            int n = 1;
+            for (int k = 1; k < chunks; k++) {
+                long pos = Math.max(bounds[n - 1], size * k / chunks);
+                long next = nextLineStart(ch, pos, size, probe);
+                if (next > bounds[n - 1] && next < size) bounds[n++] = next;
+            }
+            bounds[n++] = size;
+            return Arrays.copyOf(bounds, n);
+        }
+
+        private static long nextLineStart(FileChannel ch, long pos, long size, ByteBuffer probe) throws IOException {
+            while (pos < size) {
+                probe.clear();
+                int read = ch.read(probe, pos);
+                if (read <= 0) break;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') return pos + i + 1;
+                }
+                pos += read;
+            }
+            return size;
+        }
+
+        private static void parseChunk(FileChannel ch, long from, long to, Record r, Sink sink, LongAdder malformed) throws IOException {
+            if (to <= from) return;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            int limit = buf.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int field = 0;
+                int fieldStart = lineStart;
+                int i = lineStart;
+                while (i < limit) {
+                    byte c = buf.get(i);
+                    if (c == '\n') break;
+                    if (c == '|' && field < FIELDS) {
+                        r.start[field] = fieldStart;
+                        r.end[field] = i;
+                        field++;
+                        fieldStart = i + 1;
+                    }
+                    i++;
+                }
+                int lineEnd = i;
+                if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') lineEnd--;
+                if (field < FIELDS && fieldStart <= lineEnd) {
+                    r.start[field] = fieldStart;
+                    r.end[field] = lineEnd;
+                    field++;
+                }
+                if (field >= FIELDS) {
+                    r.buf = buf;
+                    if (r.validTotal()) sink.accept(r);
+                    else if (malformed != null) malformed.increment();
+                } else if (malformed != null && lineEnd > lineStart) {
+                    malformed.increment();
+                }
+                lineStart = i + 1;
+            }
+        }
+
+        // Flyweight view of the current line; valid only inside Sink.accept().
+        static final class Record {
+            private static final String[] SEAT_NAMES = new String[OccupancyIndex.ROWS * OccupancyIndex.COLS];
+
+            static {
+                for (int i = 0; i < SEAT_NAMES.length; i++) SEAT_NAMES[i] = OccupancyIndex.seatName(i);
+            }
+
+            private ByteBuffer buf;
+            private final int[] start = new int[FIELDS];
+            private final int[] end = new int[FIELDS];
+            private byte[] scratch = new byte[128];
+            private final StringCache movies = new StringCache();
+            private final StringCache showtimes = new StringCache();
+
+            String timestamp() { return decode(start[0], end[0]); }
+            String name() { return decode(start[1], end[1]); }
+            String contact() { return decode(start[2], end[2]); }
+            String movie() { return movies.get(this, start[3], end[3]); }
+            String showtime() { return showtimes.get(this, start[4], end[4]); }
+
+            java.util.List<String> seats() {
+                java.util.List<String> seats = new ArrayList<>(4);
+                int s = start[5];
+                for (int i = s; i <= end[5]; i++) {
+                    if (i == end[5] || buf.get(i) == ',') {
+                        int index = seatIndex(s, i);
+                        if (index >= 0) seats.add(SEAT_NAMES[index]);
+                        else if (i > s) seats.add(decode(s, i));
+                        s = i + 1;
+                    }
+                }
+                return seats;
+            }
+
+            long total() {
+                long cents = parseCents();
+                return cents != Long.MIN_VALUE ? cents : Money.parse(decode(start[6], end[6]));
+            }
+
+            Booking toBooking() {
+                return Booking.adopt(timestamp(), name(), contact(), movie(), showtime(), seats(), total());
+            }
+
+            private boolean validTotal() {
+                if (parseCents() != Long.MIN_VALUE) return true;
+                try {
+                    Money.parse(decode(start[6], end[6]));
+                    return true;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+
+            // Plain [-]digits[.d[d]] totals; anything else yields Long.MIN_VALUE.
+            private long parseCents() {
+                int i = start[6], e = end[6];
+                if (i == e) return Long.MIN_VALUE;
+                boolean negative = buf.get(i) == '-';
+                if (negative) i++;
+                long whole = 0;
+                int digits = 0;
+                while (i < e && buf.get(i) >= '0' && buf.get(i) <= '9') {
+                    if (++digits > 15) return Long.MIN_VALUE;
+                    whole = whole * 10 + (buf.get(i++) - '0');
+                }
+                int fraction = 0, places = 0;
+                if (i < e && buf.get(i) == '.') {
+                    i++;
+                    while (i < e && places < 2 && buf.get(i) >= '0' && buf.get(i) <= '9') {
+                        fraction = fraction * 10 + (buf.get(i++) - '0');
+                        places++;
+                    }
+                }
+                if (i != e || (digits == 0 && places == 0)) return Long.MIN_VALUE;
+                if (places == 1) fraction *= 10;
+                long cents = whole * 100 + fraction;
+                return negative ? -cents : cents;
+            }
+
+            private int seatIndex(int s, int e) {
+                while (s < e && buf.get(s) == ' ') s++;
+                while (e > s && buf.get(e - 1) == ' ') e--;
+                if (e - s < 2) return -1;
+                int row = buf.get(s) - 'A';
+                if (row < 0 || row >= OccupancyIndex.ROWS) return -1;
+                int col = 0;
+                for (int i = s + 1; i < e; i++) {
+                    int d = buf.get(i) - '0';
+                    if (d < 0 || d > 9 || col > OccupancyIndex.COLS) return -1;
+                    col = col * 10 + d;
+                }
+                if (col < 1 || col > OccupancyIndex.COLS) return -1;
+                return row * OccupancyIndex.COLS + col - 1;
+            }
+
+            private String decode(int s, int e) {
+                int len = e - s;
+                if (len == 0) return "";
+                if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+                for (int i = 0; i < len; i++) scratch[i] = buf.get(s + i);
+                return new String(scratch, 0, len, StandardCharsets.UTF_8);
+            }
+
+            private boolean sameBytes(byte[] key, int s, int e) {
+                if (key.length != e - s) return false;
+                for (int i = 0; i < key.length; i++) {
+                    if (key[i] != buf.get(s + i)) return false;
+                }
+                return true;
+            }
+        }
+
+        // Small per-reader cache so repeated titles and showtimes share one String.
+        private static final class StringCache {
+            private static final int CAPACITY = 64;
+            private final byte[][] keys = new byte[CAPACITY][];
+            private final String[] values = new String[CAPACITY];
+            private int size;
+            private int last;
+
+            String get(Record r, int s, int e) {
+                if (size > 0 && r.sameBytes(keys[last], s, e)) return values[last];
+                for (int i = 0; i < size; i++) {
+                    if (r.sameBytes(keys[i], s, e)) {
+                        last = i;
+                        return values[i];
+                    }
+                }
+                String value = r.decode(s, e);
+                if (size < CAPACITY) {
+                    keys[size] = value.getBytes(StandardCharsets.UTF_8);
+                    values[size] = value;
+                    last = size++;
+                }
+                return value;
+            }
+        }
+    }
+
+    // On-disk encoding of the booking log. encode() is only ever called from the
+    // journal writer thread, so formats may keep per-file state such as dictionaries.
+    interface BookingFormat {
+        byte[] header();
+
+        // Returns the length of the intact prefix of the file and primes any encoder
+        // state from it.
+        long recover(FileChannel ch) throws IOException;
+
+        void reset();
+
+        byte[] encode(Booking b);
+
+        // Streams the stored bookings to batches in file order; returns the count.
+        long load(Path file, Consumer<java.util.List<Booking>> batches) throws IOException;
+    }
+
+    static class TextBookingFormat implements BookingFormat {
+        @Override
+        public byte[] header() {
+            return new byte[0];
+        }
+
+        // A crash mid-write leaves an unterminated last line; keep everything up to
+        // the last newline.
+        @Override
+        public long recover(FileChannel ch) throws IOException {
+            long keep = ch.size();
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            while (keep > 0) {
+                long from = Math.max(0, keep - buf.capacity());
+                buf.clear().limit((int) (keep - from));
+                while (buf.hasRemaining() && ch.read(buf, from + buf.position()) > 0) { }
+                int i = buf.position() - 1;
+                while (i >= 0 && buf.get(i) != '\n') i--;
+                if (i >= 0) return from + i + 1;
+                keep = from;
+            }
+            return 0L;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public byte[] encode(Booking b) {
+            return (b.toRecord() + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long load(Path file, Consumer<java.util.List<Booking>> batches) throws IOException {
+            return BookingLoader.stream(file, BookingLoader.defaultParallelism(), batches);
+        }
+    }
+
+    // Sequence of [length][crc32][payload] frames after a 4-byte magic. Titles and
+    // showtimes are written once as dictionary frames and referenced by id, seats
+    // are a grid bitmask, timestamps are epoch seconds and totals are cents.
+    static class BinaryBookingFormat implements BookingFormat {
+        static final int MAGIC = 0x43424B31;
+        static final int MAX_FRAME = 1 << 20;
+        static final byte MOVIE = 1;
+        static final byte SHOWTIME = 2;
+        static final byte BOOKING = 3;
+        static final int RAW_TIMESTAMP = 1;
+
+        private final Map<String, Integer> movieIds = new HashMap<>();
+        private final Map<String, Integer> showtimeIds = new HashMap<>();
+        private final Bytes frames = new Bytes();
+        private final Bytes payload = new Bytes();
+        private final CRC32 crc = new CRC32();
+
+        @Override
+        public byte[] header() {
+            return ByteBuffer.allocate(4).putInt(MAGIC).array();
+        }
+
+        @Override
+        public long recover(FileChannel ch) throws IOException {
+            reset();
+            FrameReader in = FrameReader.open(ch);
+            if (in == null) return 0L;
+            ByteBuffer p;
+            while ((p = in.next()) != null) {
+                byte type = p.get();
+                if (type != MOVIE && type != SHOWTIME) continue;
+                int id = getVarint(p);
+                (type == MOVIE ? movieIds : showtimeIds).put(getString(p, getVarint(p)), id);
+            }
+            return in.position();
+        }
+
+        @Override
+        public void reset() {
+            movieIds.clear();
+            showtimeIds.clear();
+        }
+
+        @Override
+        public byte[] encode(Booking b) {
+            frames.reset();
+            int movieId = define(movieIds, MOVIE, b.movie);
+            int showtimeId = define(showtimeIds, SHOWTIME, b.showtime);
+
+            long epoch = parseTimestamp(b.timestamp);
+            long mask = OccupancyIndex.toMask(b.seats);
+            payload.reset();
+            payload.put(BOOKING);
+            payload.put((byte) (epoch == Long.MIN_VALUE ? RAW_TIMESTAMP : 0));
+            if (epoch == Long.MIN_VALUE) payload.putString(b.timestamp);
+            else payload.putLong(epoch);
+            payload.putString(b.name);
+            payload.putString(b.contact);
+            payload.putVarint(movieId);
+            payload.putVarint(showtimeId);
+            payload.putLong(mask);
+            int extra = 0;
+            for (String seat : b.seats) if (OccupancyIndex.seatIndex(seat) < 0) extra++;
+            payload.putVarint(extra);
+            for (String seat : b.seats) if (OccupancyIndex.seatIndex(seat) < 0) payload.putString(seat);
+            payload.putLong(b.totalCents);
+            frame();
+            return frames.toByteArray();
+        }
+
+        // Ids are handed out in file order so a reader can rebuild them positionally.
+        private int define(Map<String, Integer> ids, byte type, String value) {
+            Integer id = ids.get(value);
+            if (id != null) return id;
+            id = ids.size();
+            ids.put(value, id);
+            payload.reset();
+            payload.put(type);
+            payload.putVarint(id);
+            payload.putString(value);
+            frame();
+            return id;
+        }
+
+        private void frame() {
+            crc.reset();
+            crc.update(payload.buf, 0, payload.size);
+            frames.putInt(payload.size);
+            frames.putInt((int) crc.getValue());
+            frames.put(payload.buf, 0, payload.size);
+        }
+
+        @Override
+        public long load(Path file, Consumer<java.util.List<Booking>> batches) throws IOException {
+            java.util.List<Booking> out = new ArrayList<>();
+            long count = 0;
+            java.util.List<String> movies = new ArrayList<>();
+            java.util.List<String> showtimes = new ArrayList<>();
+            TimestampFormatter timestamps = new TimestampFormatter();
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                FrameReader in = FrameReader.open(ch);
+                if (in == null) return 0L;
+                ByteBuffer p;
+                while ((p = in.next()) != null) {
+                    byte type = p.get();
+                    if (type == MOVIE || type == SHOWTIME) {
+                        int id = getVarint(p);
+                        java.util.List<String> dict = type == MOVIE ? movies : showtimes;
+                        while (dict.size() <= id) dict.add(null);
+                        dict.set(id, getString(p, getVarint(p)));
+                    } else if (type == BOOKING) {
+                        int flags = p.get();
+                        String ts = (flags & RAW_TIMESTAMP) != 0 ? getString(p, getVarint(p)) : timestamps.format(p.getLong());
+                        String name = getString(p, getVarint(p));
+                        String contact = getString(p, getVarint(p));
+                        String movie = movies.get(getVarint(p));
+                        String showtime = showtimes.get(getVarint(p));
+                        long mask = p.getLong();
+                        java.util.List<String> seats = new ArrayList<>(Long.bitCount(mask));
+                        for (long m = mask; m != 0L; m &= m - 1) seats.add(OccupancyIndex.seatName(Long.numberOfTrailingZeros(m)));
+                        for (int extra = getVarint(p); extra > 0; extra--) seats.add(getString(p, getVarint(p)));
+                        long total = p.getLong();
+                        out.add(Booking.adopt(ts, name, contact, movie, showtime, seats, total));
+                        count++;
+                        if (out.size() == BookingLoader.LOAD_BATCH) {
+                            batches.accept(out);
+                            out = new ArrayList<>();
+                        }
+                    }
+                }
+            }
+            if (!out.isEmpty()) batches.accept(out);
+            return count;
+        }
+
+        // One-shot migration of a pipe-delimited history into a new binary store.
+        static long convert(Path csv, Path bin) throws IOException {
+            BinaryBookingFormat format = new BinaryBookingFormat();
+            Path tmp = bin.resolveSibling(bin.getFileName() + ".tmp");
+            long[] count = {0};
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 BufferedOutputStream out = new BufferedOutputStream(fos, 1 << 16)) {
+                out.write(format.header());
+                IOException[] failure = {null};
+                BookingLoader.stream(csv, BookingLoader.defaultParallelism(), batch -> {
+                    if (failure[0] != null) return;
+                    try {
+                        for (Booking b : batch) out.write(format.encode(b));
+                        count[0] += batch.size();
+                    } catch (IOException ex) {
+                        failure[0] = ex;
+                    }
+                });
+                if (failure[0] != null) throw failure[0];
+                out.flush();
+                fos.getChannel().force(true);
+            }
+            Files.move(tmp, bin, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return count[0];
+        }
+
+        static long parseTimestamp(String ts) {
+            if (ts == null || ts.length() != 19 || ts.charAt(4) != '-' || ts.charAt(7) != '-'
+                    || ts.charAt(10) != ' ' || ts.charAt(13) != ':' || ts.charAt(16) != ':') {
+                return Long.MIN_VALUE;
+            }
+            try {
+                LocalDateTime t = LocalDateTime.of(digits(ts, 0, 4), digits(ts, 5, 7), digits(ts, 8, 10),
+                        digits(ts, 11, 13), digits(ts, 14, 16), digits(ts, 17, 19));
+                long epoch = t.atZone(ZoneId.systemDefault()).toEpochSecond();
+                return ts.equals(formatTimestamp(epoch)) ? epoch : Long.MIN_VALUE;
+            } catch (RuntimeException ex) {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        static String formatTimestamp(long epochSecond) {
+            return new TimestampFormatter().format(epochSecond);
+        }
+
+        // Zone offsets only change on minute boundaries, so the date and time up to
+        // the minute are resolved once per distinct minute.
+        static final class TimestampFormatter {
+            private final char[] c = "0000-00-00 00:00:00".toCharArray();
+            private long minute = Long.MIN_VALUE;
+
+            String format(long epochSecond) {
+                long m = Math.floorDiv(epochSecond, 60);
+                if (m != minute) {
+                    LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochSecond(m * 60), ZoneId.systemDefault());
+                    pad(c, 0, 4, t.getYear());
+                    pad(c, 5, 7, t.getMonthValue());
+                    pad(c, 8, 10, t.getDayOfMonth());
+                    pad(c, 11, 13, t.getHour());
+                    pad(c, 14, 16, t.getMinute());
+                    minute = m;
+                }
+                pad(c, 17, 19, Math.floorMod(epochSecond, 60));
+                return new String(c);
+            }
+        }
+
+        private static int digits(String s, int from, int to) {
+            int v = 0;
+            for (int i = from; i < to; i++) {
+                char ch = s.charAt(i);
+                if (ch < '0' || ch > '9') throw new NumberFormatException(s);
+                v = v * 10 + (ch - '0');
+            }
+            return v;
+        }
+
+        private static void pad(char[] c, int from, int to, long value) {
+            for (int i = to - 1; i >= from; i--) {
+                c[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+
+        private static int getVarint(ByteBuffer p) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = p.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        private static String getString(ByteBuffer p, int len) {
+            String s = new String(p.array(), p.arrayOffset() + p.position(), len, StandardCharsets.UTF_8);
+            p.position(p.position() + len);
+            return s;
+        }
+
+        private static final class Bytes {
+            byte[] buf = new byte[256];
+            int size;
+
+            void reset() { size = 0; }
+
+            private void ensure(int extra) {
+                if (size + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+
+            void put(byte b) { ensure(1); buf[size++] = b; }
+
+            void put(byte[] b, int off, int len) {
+                ensure(len);
+                System.arraycopy(b, off, buf, size, len);
+                size += len;
+            }
+
+            void putInt(int v) {
+                ensure(4);
+                for (int shift = 24; shift >= 0; shift -= 8) buf[size++] = (byte) (v >>> shift);
+            }
+
+            void putLong(long v) {
+                ensure(8);
+                for (int shift = 56; shift >= 0; shift -= 8) buf[size++] = (byte) (v >>> shift);
+            }
+
+            void putVarint(int v) {
+                ensure(5);
+                while ((v & ~0x7F) != 0) {
+                    buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                    v >>>= 7;
+                }
+                buf[size++] = (byte) v;
+            }
+
+            void putString(String s) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                putVarint(b.length);
+                put(b, 0, b.length);
+            }
+
+            byte[] toByteArray() { return Arrays.copyOf(buf, size); }
+        }
+
+        // Walks frames from the start of the file and stops at the first torn or
+        // corrupt one; position() is then the length of the intact prefix.
+        private static final class FrameReader {
+            private final FileChannel ch;
+            private final CRC32 crc = new CRC32();
+            private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            private long readOffset;
+            private long position;
+
+            private FrameReader(FileChannel ch) {
+                this.ch = ch;
+                buf.limit(0);
+            }
+
+            static FrameReader open(FileChannel ch) throws IOException {
+                FrameReader in = new FrameReader(ch);
+                if (!in.fill(4)) return null;
+                if (in.buf.getInt() != MAGIC) throw new IOException("Not a binary booking store");
+                in.position = 4;
+                return in;
+            }
+
+            long position() {
+                return position;
+            }
+
+            ByteBuffer next() throws IOException {
+                if (!fill(8)) return null;
+                int len = buf.getInt(buf.position());
+                int sum = buf.getInt(buf.position() + 4);
+                if (len <= 0 || len > MAX_FRAME || !fill(8 + len)) return null;
+                int start = buf.position() + 8;
+                crc.reset();
+                crc.update(buf.array(), buf.arrayOffset() + start, len);
+                if ((int) crc.getValue() != sum) return null;
+                buf.position(start);
+                ByteBuffer p = buf.slice();
+                p.limit(len);
+                buf.position(start + len);
+                position += 8 + len;
+                return p;
+            }
+
+            private boolean fill(int n) throws IOException {
+                if (buf.remaining() >= n) return true;
+                if (buf.capacity() < n) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(n, buf.capacity() * 2));
+                    bigger.put(buf);
+                    bigger.flip();
+                    buf = bigger;
+                }
+                buf.compact();
+                while (buf.hasRemaining()) {
+                    int read = ch.read(buf, readOffset);
+                    if (read <= 0) break;
+                    readOffset += read;
+                }
+                buf.flip();
+                return buf.remaining() >= n;
+            }
+        }
+    }
+
+    // Single writer thread over one long-lived channel. Appends that queue up while
+    // a write is in flight are committed together with one write and one fsync.
+    static class BookingJournal implements Closeable {
+        enum FsyncPolicy { ALWAYS, INTERVAL, NEVER }
+
+        static final int MAX_BATCH = 512;
+        static final long FSYNC_INTERVAL_MS = 200;
+
+        static final int PROGRESS_STEP = 4096;
+
+        private enum Kind { APPEND, REPLACE, RECOVER, ROTATE, CLOSE }
+
+        private static final class Task {
+            final Kind kind;
+            final java.util.List<Booking> bookings;
+            final IntConsumer progress;
+            final Path target;
+            final long queued = System.nanoTime();
+            final CompletableFuture<Long> done = new CompletableFuture<>();
+
+            Task(Kind kind, java.util.List<Booking> bookings) {
+                this(kind, bookings, null);
+            }
+
+            Task(Kind kind, java.util.List<Booking> bookings, IntConsumer progress) {
+                this(kind, bookings, progress, null);
+            }
+
+            Task(Kind kind, java.util.List<Booking> bookings, IntConsumer progress, Path target) {
+                this.kind = kind; this.bookings = bookings; this.progress = progress; this.target = target;
+            }
+        }
+
+        private final Path file;
+        private final BookingFormat format;
+        private final FsyncPolicy fsync;
+        private final Metrics metrics;
+        private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+        private final Thread writer;
+        private FileChannel channel;
+        private long tornBytes;
+        private boolean unforced;
+        private long lastForce;
+        private volatile boolean closed;
+
+        BookingJournal(Path file, BookingFormat format, FsyncPolicy fsync, Metrics metrics) {
+            this.file = file;
+            this.format = format;
+            this.fsync = fsync;
+            this.metrics = metrics;
+            writer = new Thread(this::run, "booking-journal");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        static FsyncPolicy policyFromProperty() {
+            String value = System.getProperty("cinema.journal.fsync", "always");
+            try {
+                return FsyncPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Unknown cinema.journal.fsync value '" + value + "', using ALWAYS");
+                return FsyncPolicy.ALWAYS;
+            }
+        }
+
+        CompletableFuture<Long> append(Booking b) {
+            return submit(new Task(Kind.APPEND, Collections.singletonList(b)));
+        }
+
+        // Writes the bookings together, in the same write as any appends batched
+        // with them.
+        CompletableFuture<Long> appendAll(java.util.List<Booking> bookings) {
+            return submit(new Task(Kind.APPEND, bookings));
+        }
+
+        // Writes the given bookings to a temp file and renames it over the journal.
+        // Appends queued behind the replacement land in the new file.
+        CompletableFuture<Long> replace(java.util.List<Booking> bookings, IntConsumer progress) {
+            return submit(new Task(Kind.REPLACE, bookings, progress));
+        }
+
+        // Opens the file, dropping any torn record at its tail; completes with the
+        // number of bytes removed.
+        CompletableFuture<Long> recover() {
+            return submit(new Task(Kind.RECOVER, null));
+        }
+
+        // Renames the journal to target and starts a new one; completes with the size
+        // of the renamed file, or 0 if the journal held no records and was kept.
+        CompletableFuture<Long> rotate(Path target) {
+            return submit(new Task(Kind.ROTATE, null, null, target));
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            try {
+                submit(new Task(Kind.CLOSE, null)).get(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        private CompletableFuture<Long> submit(Task t) {
+            if (closed) {
+                t.done.completeExceptionally(new IOException("Booking journal is closed"));
+                return t.done;
+            }
+            queue.add(t);
+            if (closed) failPending();
+            return t.done;
+        }
+
+        private void run() {
+            java.util.List<Task> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    Task first = unforced && fsync == FsyncPolicy.INTERVAL
+                            ? queue.poll(Math.max(1, lastForce + FSYNC_INTERVAL_MS - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+                            : queue.take();
+                    if (first == null) {
+                        force();
+                        continue;
+                    }
+                    batch.add(first);
+                } catch (InterruptedException ex) {
+                    return;
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    continue;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                int start = 0;
+                while (start < batch.size()) {
+                    int end = start;
+                    while (end < batch.size() && batch.get(end).kind == Kind.APPEND) end++;
+                    if (end > start) {
+                        commit(batch.subList(start, end));
+                        start = end;
+                        continue;
+                    }
+                    Task t = batch.get(start++);
+                    try {
+                        switch (t.kind) {
+                            case REPLACE: t.done.complete(replaceAll(t.bookings, t.progress)); break;
+                            case RECOVER: t.done.complete(recoverTail()); break;
+                            case ROTATE: t.done.complete(rotateTo(t.target)); break;
+                            default:
+                                closed = true;
+                                closeChannel();
+                                failPending();
+                                t.done.complete(0L);
+                                return;
+                        }
+                    } catch (IOException ex) {
+                        discardChannel();
+                        t.done.completeExceptionally(ex);
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        private void commit(java.util.List<Task> appends) {
+            try {
+                FileChannel ch = open();
+                java.util.List<byte[]> records = new ArrayList<>(appends.size());
+                int size = 0;
+                for (Task t : appends) {
+                    for (Booking b : t.bookings) {
+                        byte[] record = format.encode(b);
+                        records.add(record);
+                        size += record.length;
+                    }
+                }
+                ByteBuffer buf = ByteBuffer.allocate(size);
+                for (byte[] record : records) buf.put(record);
+                buf.flip();
+                long start = System.nanoTime();
+                while (buf.hasRemaining()) ch.write(buf);
+                metrics.write.since(start);
+                metrics.batches.increment();
+                metrics.bytes.add(size);
+                unforced = true;
+                if (fsync == FsyncPolicy.ALWAYS
+                        || (fsync == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastForce >= FSYNC_INTERVAL_MS)) {
+                    force();
+                }
+                long position = ch.position();
+                for (Task t : appends) {
+                    metrics.append.since(t.queued);
+                    t.done.complete(position);
+                }
+            } catch (IOException ex) {
+                // Encoder state may now be ahead of the file; reopening re-runs recovery.
+                discardChannel();
+                for (Task t : appends) t.done.completeExceptionally(ex);
+            }
+        }
+
+        private long replaceAll(java.util.List<Booking> bookings, IntConsumer progress) throws IOException {
+            Path parent = file.getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            format.reset();
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                buf.put(format.header());
+                int written = 0;
+                for (Booking b : bookings) {
+                    byte[] data = format.encode(b);
+                    if (data.length > buf.remaining()) {
+                        buf.flip();
+                        while (buf.hasRemaining()) out.write(buf);
+                        buf.clear();
+                    }
+                    if (data.length > buf.capacity()) {
+                        out.write(ByteBuffer.wrap(data));
+                    } else {
+                        buf.put(data);
+                    }
+                    if (++written % PROGRESS_STEP == 0 && progress != null) progress.accept(written);
+                }
+                buf.flip();
+                while (buf.hasRemaining()) out.write(buf);
+                if (fsync != FsyncPolicy.NEVER) out.force(true);
+                if (progress != null) progress.accept(written);
+            }
+            closeChannel();
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return open().size();
+        }
+
+        private long rotateTo(Path target) throws IOException {
+            long size = open().size();
+            if (size <= format.header().length) return 0L;
+            closeChannel();
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            format.reset();
+            open();
+            return size;
+        }
+
+        private long recoverTail() throws IOException {
+            if (channel == null && !Files.exists(file)) return 0L;
+            open();
+            long torn = tornBytes;
+            tornBytes = 0;
+            return torn;
+        }
+
+        private FileChannel open() throws IOException {
+            if (channel == null) {
+                Path parent = file.getParent();
+                if (parent != null) Files.createDirectories(parent);
+                FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    long size = ch.size();
+                    long valid = size == 0 ? 0 : format.recover(ch);
+                    if (valid < size) {
+                        ch.truncate(valid);
+                        tornBytes += size - valid;
+                    }
+                    if (valid == 0) {
+                        format.reset();
+                        ch.write(ByteBuffer.wrap(format.header()), 0);
+                    }
+                    ch.force(true);
+                    ch.position(ch.size());
+                } catch (IOException ex) {
+                    ch.close();
+                    throw ex;
+                }
+                channel = ch;
+            }
+            return channel;
+        }
+
+        private void force() throws IOException {
+            if (channel != null && unforced) {
+                long start = System.nanoTime();
+                channel.force(false);
+                metrics.flush.since(start);
+            }
+            unforced = false;
+            lastForce = System.currentTimeMillis();
+        }
+
+        private void closeChannel() {
+            if (channel == null) return;
+            try {
+                force();
+                channel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            channel = null;
+        }
+
+        private void discardChannel() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            channel = null;
+        }
+
+        private void failPending() {
+            Task t;
+            while ((t = queue.poll()) != null) t.done.completeExceptionally(new IOException("Booking journal is closed"));
+        }
+    }
+
+    class CheckoutDialog extends JDialog {
+        private Booking completed = null;
+
+        CheckoutDialog(JFrame owner, Movie movie, Screening screening, java.util.List<String> seats) {
+            super(owner, "Checkout - " + movie.title, true);
+            String showtime = screening.key;
+            setSize(460, 440);
+            setLocationRelativeTo(owner);
+            setLayout(new BorderLayout());
+
+            JPanel p = new JPanel();
+            p.setLayout(new BoxLayout(p, BoxLayout.Y_AXIS));
+            p.setBorder(new EmptyBorder(12, 12, 12, 12));
+
+            p.add(new JLabel("Movie: " + movie.title));
+            p.add(new JLabel("Showtime: " + showtime));
+            p.add(new JLabel("Seats: " + String.join(", ", seats)));
+            p.add(Box.createVerticalStrut(8));
+
+            PricingEngine pricing = system.pricing;
+            PricingEngine.Quote quote = pricing.newQuote();
+            JLabel lSubtotal = new JLabel();
+            JLabel lDiscount = new JLabel();
+            JLabel[] lTaxes = new JLabel[pricing.taxRules()];
+            JLabel lTotal = new JLabel();
+            p.add(new JLabel("Price per seat: " + Money.format(movie.price)));
+            p.add(lSubtotal);
+            p.add(lDiscount);
+            for (int t = 0; t < lTaxes.length; t++) p.add(lTaxes[t] = new JLabel());
+            p.add(Box.createVerticalStrut(6));
+            p.add(lTotal);
+            p.add(Box.createVerticalStrut(12));
+
+            JPanel codeRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+            JTextField tfCode = new JTextField(8);
+            JButton apply = new JButton("Apply");
+            codeRow.add(new JLabel("Discount code: "));
+            codeRow.add(tfCode);
+            codeRow.add(apply);
+            codeRow.setAlignmentX(Component.LEFT_ALIGNMENT);
+            p.add(codeRow);
+            p.add(Box.createVerticalStrut(6));
+
+            // Prices the seats with the code in the field; false if the code is unknown.
+            java.util.function.BooleanSupplier price = () -> {
+                String code = tfCode.getText().trim();
+                if (!code.isEmpty() && !pricing.knowsCode(code)) return false;
+                pricing.quote(movie, screening, seats, code, quote);
+                lSubtotal.setText("Subtotal: " + Money.format(quote.subtotal));
+                lDiscount.setText(quote.discount == 0 ? " " : "Discount: -" + Money.format(quote.discount));
+                for (int t = 0; t < lTaxes.length; t++) lTaxes[t].setText(pricing.taxLabel(t) + ": " + Money.format(quote.taxes[t]));
+                lTotal.setText("TOTAL: " + Money.format(quote.total));
+                return true;
+            };
+            price.getAsBoolean();
+            apply.addActionListener(e -> {
+                if (!price.getAsBoolean()) JOptionPane.showMessageDialog(this, "Unknown discount code.");
+            });
+
+            p.add(new JLabel("Your name:"));
+            JTextField tfName = new JTextField();
+            p.add(tfName);
+            p.add(Box.createVerticalStrut(6));
+            p.add(new JLabel("Contact (phone/email):"));
+            JTextField tfContact = new JTextField();
+            p.add(tfContact);
+
+            add(p, BorderLayout.CENTER);
+
+            JPanel bottom = new JPanel();
+            JButton cancel = new JButton("Cancel");
+            JButton pay = new JButton("Pay (Mock)");
+            bottom.add(cancel);
+            bottom.add(pay);
+            add(bottom, BorderLayout.SOUTH);
+
+            cancel.addActionListener(e -> dispose());
+
+            pay.addActionListener(e -> {
+                String name = tfName.getText().trim();
+                String contact = tfContact.getText().trim();
+                if (name.isEmpty() || contact.isEmpty()) {
+                    JOptionPane.showMessageDialog(this, "Please enter name and contact.");
+                    return;
+                }
+                if (!price.getAsBoolean()) {
+                    JOptionPane.showMessageDialog(this, "Unknown discount code.");
+                    return;
+                }
+                completed = new Booking(BookingSystem.now(), name, contact, movie.title, showtime, seats, quote.total);
+                dispose();
+            });
+        }
+
+        Booking getCompletedBooking() {
+            return completed;
+        }
+    }
+
+    // Receipt text from a template compiled once into literal and field segments.
+    // Fields: {timestamp} {name} {contact} {movie} {showtime} {seats} {total}.
+    // -Dcinema.receipt.template names a UTF-8 file to use instead of DEFAULT.
+    static final class ReceiptTemplate {
+        static final String DEFAULT = "******** Cinema Receipt ********\n"
+                + "Timestamp: {timestamp}\n"
+                + "Name: {name}\n"
+                + "Contact: {contact}\n"
+                + "Movie: {movie}\n"
+                + "Showtime: {showtime}\n"
+                + "Seats: {seats}\n"
+                + "Total: {total}\n"
+                + "********************************\n";
+        private static final java.util.List<String> FIELDS = Arrays.asList("timestamp", "name", "contact", "movie", "showtime", "seats", "total");
+
+        // literals[i] precedes fields[i]; the last literal closes the receipt.
+        private final String[] literals;
+        private final int[] fields;
+        private final int sizeHint;
+
+        private ReceiptTemplate(String[] literals, int[] fields) {
+            this.literals = literals;
+            this.fields = fields;
+            int size = 16 * fields.length;
+            for (String l : literals) size += l.length();
+            sizeHint = size;
+        }
+
+        static ReceiptTemplate compile(String text) {
+            java.util.List<String> literals = new ArrayList<>();
+            IntList fields = new IntList();
+            int from = 0;
+            for (int open; (open = text.indexOf('{', from)) >= 0; ) {
+                int close = text.indexOf('}', open);
+                int field = close < 0 ? -1 : FIELDS.indexOf(text.substring(open + 1, close));
+                if (field < 0) throw new IllegalArgumentException("unknown receipt field at offset " + open + ": " + text.substring(open, Math.min(text.length(), open + 20)));
+                literals.add(text.substring(from, open));
+                fields.add(field);
+                from = close + 1;
+            }
+            literals.add(text.substring(from));
+            return new ReceiptTemplate(literals.toArray(new String[0]), fields.toArray());
+        }
+
+        static ReceiptTemplate fromProperty() {
+            String file = System.getProperty("cinema.receipt.template");
+            if (file != null) {
+                try {
+                    return compile(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+                } catch (IOException | IllegalArgumentException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            return compile(DEFAULT);
+        }
+
+        String render(Booking b) {
+            return render(b, new StringBuilder(sizeHint)).toString();
+        }
+
+        StringBuilder render(Booking b, StringBuilder sb) {
+            for (int i = 0; i < fields.length; i++) {
+                sb.append(literals[i]);
+                switch (fields[i]) {
+                    case 0: sb.append(b.timestamp); break;
+                    case 1: sb.append(b.name); break;
+                    case 2: sb.append(b.contact); break;
+                    case 3: sb.append(b.movie); break;
+                    case 4: sb.append(b.showtime); break;
+                    case 5:
+                        for (int s = 0; s < b.seats.size(); s++) {
+                            if (s > 0) sb.append(", ");
+                            sb.append(b.seats.get(s));
+                        }
+                        break;
+                    default: Money.append(sb, b.totalCents);
+                }
+            }
+            return sb.append(literals[fields.length]);
+        }
+    }
+
+    // Writes one receipt file per booking, either into a directory or into a zip
+    // archive. Workers render chunks of receipts in parallel, each reusing its
+    // own text and byte buffers. Directory chunks write their own files. Zip
+    // entries are written in booking order by the calling thread, because
+    // ZipOutputStream is sequential; the number of rendered chunks waiting for
+    // it is capped so memory stays flat for any selection size. Entries are
+    // STORED with the CRC taken by the worker: deflating a few hundred bytes
+    // costs a full zlib reset per entry and kept the writer 4x slower.
+    static final class ReceiptExporter {
+        static final int CHUNK = 256;
+
+        private final ReceiptTemplate template;
+        private final int threads;
+
+        ReceiptExporter(ReceiptTemplate template, int threads) {
+            this.template = template;
+            this.threads = Math.max(1, threads);
+        }
+
+        // n is the booking's position in a bulk export, 0 for a single receipt.
+        static String fileName(Booking b, int n) {
+            StringBuilder sb = new StringBuilder(40).append("receipt_");
+            for (int i = 0; i < b.timestamp.length(); i++) {
+                char c = b.timestamp.charAt(i);
+                sb.append(c == ':' || c == ' ' ? '_' : c);
+            }
+            if (n > 0) sb.append('_').append(n);
+            return sb.append(".txt").toString();
+        }
+
+        long export(java.util.List<Booking> bookings, Path target, IntConsumer progress) throws IOException {
+            boolean zip = target.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+            if (!zip) Files.createDirectories(target);
+            AtomicLong ids = new AtomicLong();
+            ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "receipt-export-" + ids.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+            ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            Path tmp = zip ? target.resolveSibling(target.getFileName() + ".tmp") : null;
+            try {
+                try (ZipOutputStream out = zip ? new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) : null) {
+                    if (out != null) out.setMethod(ZipOutputStream.STORED);
+                    int done = 0;
+                    for (int from = 0; from < bookings.size() || !inFlight.isEmpty(); ) {
+                        if (from < bookings.size() && inFlight.size() < 2 * threads) {
+                            int start = from, end = Math.min(bookings.size(), from + CHUNK);
+                            inFlight.add(pool.submit(() -> render(bookings, start, end, buffers.get(), zip ? null : target)));
+                            from = end;
+                            continue;
+                        }
+                        Chunk chunk = await(inFlight.poll());
+                        if (zip) {
+                            for (int i = 0, pos = 0; i < chunk.ends.length; pos = chunk.ends[i++]) {
+                                int n = chunk.first + i;
+                                ZipEntry entry = new ZipEntry(fileName(bookings.get(n), n + 1));
+                                entry.setSize(chunk.ends[i] - pos);
+                                entry.setCompressedSize(chunk.ends[i] - pos);
+                                entry.setCrc(chunk.crcs[i]);
+                                out.putNextEntry(entry);
+                                out.write(chunk.data, pos, chunk.ends[i] - pos);
+                                out.closeEntry();
+                            }
+                        }
+                        done += chunk.ends.length;
+                        if (progress != null) progress.accept(done);
+                    }
+                }
+                if (zip) Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                for (Future<Chunk> f : inFlight) f.cancel(true);
+                pool.shutdownNow();
+                if (zip) Files.deleteIfExists(tmp);
+            }
+            return bookings.size();
+        }
+
+        private static Chunk await(Future<Chunk> f) throws IOException {
+            try {
+                return f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while exporting receipts");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        // Renders bookings[from, to). With a directory each receipt is written
+        // straight from the worker's buffer; otherwise the chunk keeps the bytes.
+        private Chunk render(java.util.List<Booking> bookings, int from, int to, Buffers buf, Path dir) throws IOException {
+            Chunk chunk = new Chunk(from, to - from);
+            ByteBuffer all = buf.chunk;
+            all.clear();
+            for (int i = from; i < to; i++) {
+                Booking b = bookings.get(i);
+                buf.text.setLength(0);
+                template.render(b, buf.text);
+                ByteBuffer bytes = buf.encode();
+                if (dir != null) {
+                    try (OutputStream out = Files.newOutputStream(dir.resolve(fileName(b, i + 1)))) {
+                        out.write(bytes.array(), 0, bytes.limit());
+                    }
+                } else {
+                    buf.crc.reset();
+                    buf.crc.update(bytes.array(), 0, bytes.limit());
+                    chunk.crcs[i - from] = buf.crc.getValue();
+                    if (all.remaining() < bytes.limit()) all = buf.growChunk(bytes.limit());
+                    all.put(bytes);
+                    chunk.ends[i - from] = all.position();
+                }
+            }
+            chunk.data = dir != null ? null : Arrays.copyOf(all.array(), all.position());
+            return chunk;
+        }
+
+        private static final class Chunk {
+            final int first;
+            final int[] ends;
+            final long[] crcs;
+            byte[] data;
+
+            Chunk(int first, int size) {
+                this.first = first;
+                this.ends = new int[size];
+                this.crcs = new long[size];
+            }
+        }
+
+        // One per worker thread, reused across chunks.
+        private static final class Buffers {
+            final StringBuilder text = new StringBuilder(512);
+            final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            final CRC32 crc = new CRC32();
+            char[] chars = new char[512];
+            ByteBuffer bytes = ByteBuffer.allocate(1024);
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK * 512);
+
+            ByteBuffer encode() throws CharacterCodingException {
+                int length = text.length();
+                int max = (int) (length * (double) encoder.maxBytesPerChar()) + 16;
+                if (chars.length < length) chars = new char[length];
+                if (bytes.capacity() < max) bytes = ByteBuffer.allocate(max);
+                // Encoding from a char[] takes the encoder's array fast path.
+                text.getChars(0, length, chars, 0);
+                bytes.clear();
+                encoder.reset();
+                CoderResult r = encoder.encode(CharBuffer.wrap(chars, 0, length), bytes, true);
+                if (!r.isUnderflow()) r.throwException();
+                encoder.flush(bytes);
+                bytes.flip();
+                return bytes;
+            }
+
+            ByteBuffer growChunk(int extra) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(chunk.capacity() * 2, chunk.position() + extra));
+                chunk.flip();
+                bigger.put(chunk);
+                return chunk = bigger;
+            }
+        }
+    }
+
+    class ReceiptDialog extends JDialog {
+        ReceiptDialog(JFrame owner, Booking b) {
+            super(owner, "Receipt", true);
+            setSize(520, 520);
+            setLocationRelativeTo(owner);
+            setLayout(new BorderLayout());
+
+            JTextArea ta = new JTextArea();
+            ta.setEditable(false);
+            ta.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+            ta.setText(system.receipt.render(b));
+
+            add(new JScrollPane(ta), BorderLayout.CENTER);
+
+            JPanel bottom = new JPanel();
+            JButton close = new JButton("Close");
+            JButton save = new JButton("Save Receipt as TXT");
+            bottom.add(save);
+            bottom.add(close);
+            add(bottom, BorderLayout.SOUTH);
+
+            close.addActionListener(e -> dispose());
+
+            save.addActionListener(e -> {
+                JFileChooser fc = new JFileChooser();
+                fc.setSelectedFile(new File(ReceiptExporter.fileName(b, 0)));
+                int r = fc.showSaveDialog(this);
+                if (r == JFileChooser.APPROVE_OPTION) {
+                    try (BufferedWriter bw = new BufferedWriter(new FileWriter(fc.getSelectedFile()))) {
+                        bw.write(ta.getText());
+                        JOptionPane.showMessageDialog(this, "Receipt saved.");
+                    } catch (IOException ex) {
+                        JOptionPane.showMessageDialog(this, "Failed to save receipt: " + ex.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    // Live view of SalesAnalytics. It redraws once a second from the running
+    // totals, so its cost depends on the number of movies, screenings and days,
+    // not on the number of bookings.
+    class SalesDashboard extends JDialog {
+        private final SalesAnalytics sales;
+        private final JLabel summary = new JLabel();
+        private final JTabbedPane tabs = new JTabbedPane();
+        private final StatsTableModel movies = new StatsTableModel("Movie", "Bookings", "Tickets", "Revenue", "Occupancy");
+        private final StatsTableModel screenings = new StatsTableModel("Movie", "Showtime", "Tickets", "Seats", "Occupancy", "Revenue");
+        private final StatsTableModel days = new StatsTableModel("Day", "Bookings", "Tickets", "Revenue");
+        private final StatsTableModel hours = new StatsTableModel("Hour Booked", "Tickets", "Share");
+        private final javax.swing.Timer timer;
+
+        SalesDashboard(JFrame owner, SalesAnalytics sales) {
+            super(owner, "Sales Dashboard", false);
+            this.sales = sales;
+            setSize(820, 480);
+            setLocationRelativeTo(owner);
+            setLayout(new BorderLayout());
+            setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+            summary.setBorder(new EmptyBorder(10, 10, 10, 10));
+            summary.setFont(new Font("Segoe UI", Font.BOLD, 14));
+            add(summary, BorderLayout.NORTH);
+            tabs.addTab("Movies", new JScrollPane(new JTable(movies)));
+            tabs.addTab("Screenings", new JScrollPane(new JTable(screenings)));
+            tabs.addTab("Days", new JScrollPane(new JTable(days)));
+            tabs.addTab("Peak Hours", new JScrollPane(new JTable(hours)));
+            tabs.addChangeListener(e -> refresh());
+            add(tabs, BorderLayout.CENTER);
+
+            JPanel bottom = new JPanel();
+            JButton close = new JButton("Close");
+            bottom.add(close);
+            add(bottom, BorderLayout.SOUTH);
+            close.addActionListener(e -> dispose());
+
+            timer = new javax.swing.Timer(1000, e -> refresh());
+            addWindowListener(new java.awt.event.WindowAdapter() {
+                public void windowClosed(java.awt.event.WindowEvent evt) {
+                    timer.stop();
+                }
+            });
+            refresh();
+            timer.start();
+        }
+
+        // Only the summary and the visible tab are rebuilt.
+        private void refresh() {
+            long[] byHour = sales.hours();
+            int peak = 0;
+            for (int h = 1; h < byHour.length; h++) if (byHour[h] > byHour[peak]) peak = h;
+            long tickets = sales.all.tickets.sum();
+            summary.setText(String.format(Locale.US, "Revenue %s   Tickets %d   Bookings %d   Occupancy %.1f%%   Peak hour %s",
+                    sales.all.revenue(), tickets, sales.all.bookings.sum(), sales.occupancy() * 100,
+                    tickets == 0 ? "-" : String.format(Locale.US, "%02d:00", peak)));
+
+            java.util.List<Object[]> rows = new ArrayList<>();
+            switch (tabs.getSelectedIndex()) {
+                case 0:
+                    java.util.List<SalesAnalytics.MovieTotals> byMovie = sales.movies();
+                    byMovie.sort((a, b) -> Long.compare(b.cents.sum(), a.cents.sum()));
+                    for (SalesAnalytics.MovieTotals m : byMovie) {
+                        rows.add(new Object[]{m.movie, m.bookings.sum(), m.tickets.sum(), m.revenue(), percent(m.occupancy())});
+                    }
+                    movies.setRows(rows);
+                    break;
+                case 1:
+                    java.util.List<SalesAnalytics.ScreeningTotals> byScreening = sales.screenings();
+                    byScreening.sort((a, b) -> Double.compare(b.occupancy(), a.occupancy()));
+                    for (SalesAnalytics.ScreeningTotals s : byScreening) {
+                        rows.add(new Object[]{s.movie, s.showtime, s.tickets.sum(), s.capacity, percent(s.occupancy()), s.revenue()});
+                    }
+                    screenings.setRows(rows);
+                    break;
+                case 2:
+                    for (Map.Entry<String, SalesAnalytics.Totals> d : sales.days().entrySet()) {
+                        SalesAnalytics.Totals t = d.getValue();
+                        rows.add(new Object[]{d.getKey(), t.bookings.sum(), t.tickets.sum(), t.revenue()});
+                    }
+                    days.setRows(rows);
+                    break;
+                default:
+                    for (int h = 0; h < byHour.length; h++) {
+                        rows.add(new Object[]{String.format(Locale.US, "%02d:00", h), byHour[h], percent(tickets == 0 ? 0 : byHour[h] / (double) tickets)});
+                    }
+                    hours.setRows(rows);
+            }
+        }
+
+        private String percent(double share) {
+            return String.format(Locale.US, "%.1f%%", share * 100);
+        }
+    }
+
+    static class StatsTableModel extends AbstractTableModel {
+        private final String[] columns;
+        private java.util.List<Object[]> rows = Collections.emptyList();
+
+        StatsTableModel(String... columns) {
+            this.columns = columns;
+        }
+
+        void setRows(java.util.List<Object[]> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+    }
+
+    class PastBookingsDialog extends JDialog {
+        private static final String ALL = "All";
+
+        PastBookingsDialog(JFrame owner, BookingStore store) {
             super(owner, "Past Bookings", true);
-            setSize(720, 420);
+            setSize(900, 480);
             setLocationRelativeTo(owner);
             setLayout(new BorderLayout());
 
-            String[] cols = {"Timestamp", "Name", "Contact", "Movie", "Showtime", "Seats", "Total"};
-            DefaultTableModel tm = new DefaultTableModel(cols, 0) {
-                @Override
-                public boolean isCellEditable(int row, int column) { return false; }
-            };
+            BookingTableModel tm = new BookingTableModel(store);
             JTable t = new JTable(tm);
             t.setRowHeight(26);
-            for (Booking b : bookings) {
-                tm.addRow(new Object[]{b.timestamp, b.name, b.contact, b.movie, b.showtime, String.join(",", b.seats), String.format(Locale.US, "%.2f", b.total)});
-            }
+            t.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+                public void mouseClicked(java.awt.event.MouseEvent evt) {
+                    int column = t.columnAtPoint(evt.getPoint());
+                    if (column < 0) return;
+                    tm.sortBy(t.convertColumnIndexToModel(column));
+                    for (int i = 0; i < t.getColumnCount(); i++) {
+                        t.getColumnModel().getColumn(i).setHeaderValue(tm.getColumnName(t.convertColumnIndexToModel(i)));
+                    }
+                    t.getTableHeader().repaint();
+                }
+            });
             add(new JScrollPane(t), BorderLayout.CENTER);
 
+            JPanel filters = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            JComboBox<String> cbMovie = new JComboBox<>(new String[]{ALL});
+            JComboBox<String> cbShowtime = new JComboBox<>(new String[]{ALL});
+            for (String m : store.movies()) cbMovie.addItem(m);
+            for (String s : store.showtimes()) cbShowtime.addItem(s);
+            JTextField tfContact = new JTextField(10);
+            JTextField tfFrom = new JTextField(8);
+            JTextField tfTo = new JTextField(8);
+            JButton apply = new JButton("Filter");
+            JLabel count = new JLabel(tm.getRowCount() + " bookings");
+            filters.add(new JLabel("Contact:"));
+            filters.add(tfContact);
+            filters.add(new JLabel("Movie:"));
+            filters.add(cbMovie);
+            filters.add(new JLabel("Showtime:"));
+            filters.add(cbShowtime);
+            filters.add(new JLabel("From (yyyy-MM-dd):"));
+            filters.add(tfFrom);
+            filters.add(new JLabel("To:"));
+            filters.add(tfTo);
+            filters.add(apply);
+            filters.add(count);
+            add(filters, BorderLayout.NORTH);
+
+            apply.addActionListener(e -> {
+                String contact = tfContact.getText().trim();
+                String movie = (String) cbMovie.getSelectedItem();
+                String showtime = (String) cbShowtime.getSelectedItem();
+                String from = tfFrom.getText().trim();
+                String to = tfTo.getText().trim();
+                Long fromKey = from.isEmpty() ? Long.valueOf(Long.MIN_VALUE) : BookingStore.dateKey(from, false);
+                Long toKey = to.isEmpty() ? Long.valueOf(Long.MAX_VALUE) : BookingStore.dateKey(to, true);
+                if (fromKey == null || toKey == null) {
+                    JOptionPane.showMessageDialog(this, "Dates must be in yyyy-MM-dd format.");
+                    return;
+                }
+                BookingQuery q = new BookingQuery()
+                        .contact(contact.isEmpty() ? null : contact)
+                        .movie(ALL.equals(movie) ? null : movie)
+                        .showtime(ALL.equals(showtime) ? null : showtime)
+                        .between(fromKey, toKey);
+                boolean unfiltered = q.contact == null && q.movie == null && q.showtime == null
+                        && from.isEmpty() && to.isEmpty();
+                tm.setRows(unfiltered ? null : tm.query(q));
+                count.setText(tm.getRowCount() + " bookings");
+            });
+
             JPanel bottom = new JPanel();
+            JButton receipts = new JButton("Export Receipts");
             JButton close = new JButton("Close");
+            bottom.add(receipts);
             bottom.add(close);
             add(bottom, BorderLayout.SOUTH);
 
+            receipts.addActionListener(e -> {
+                // The selected rows, or every row the current filter shows.
+                int[] selected = t.getSelectedRows();
+                int n = selected.length > 0 ? selected.length : tm.getRowCount();
+                java.util.List<Booking> chosen = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) chosen.add(tm.bookingAt(selected.length > 0 ? selected[i] : i));
+                if (chosen.isEmpty()) {
+                    JOptionPane.showMessageDialog(this, "No bookings to export.");
+                    return;
+                }
+                JFileChooser fc = new JFileChooser();
+                fc.setDialogTitle("Export " + chosen.size() + " receipts (a .zip file or a folder)");
+                fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+                fc.setSelectedFile(new File("receipts.zip"));
+                if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+                exportReceipts(chosen, fc.getSelectedFile().toPath());
+            });
             close.addActionListener(e -> dispose());
         }
+
+        private void exportReceipts(java.util.List<Booking> chosen, Path target) {
+            ProgressMonitor monitor = new ProgressMonitor(this, "Exporting receipts to " + target, "", 0, chosen.size());
+            monitor.setMillisToDecideToPopup(200);
+            SwingWorker<Long, Void> worker = new SwingWorker<Long, Void>() {
+                @Override
+                protected Long doInBackground() throws Exception {
+                    return system.exportReceipts(chosen, target, n -> setProgress((int) (n * 100L / chosen.size())));
+                }
+
+                @Override
+                protected void done() {
+                    monitor.close();
+                    try {
+                        JOptionPane.showMessageDialog(PastBookingsDialog.this, get() + " receipts saved to: " + target);
+                    } catch (InterruptedException | ExecutionException ex) {
+                        ex.printStackTrace();
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        JOptionPane.showMessageDialog(PastBookingsDialog.this, "Failed to export receipts: " + cause.getMessage());
+                    }
+                }
+            };
+            worker.addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) {
+                    int percent = (Integer) e.getNewValue();
+                    monitor.setProgress(percent * chosen.size() / 100);
+                    monitor.setNote(percent + "% of " + chosen.size() + " receipts");
+                }
+            });
+            tasks.execute(worker);
+        }
+    }
+
+    // Table model over the booking store that formats cells only when the table
+    // asks for them. Rows are an int[] view of store row ids, so filtering and
+    // sorting never copy bookings.
+    static class BookingTableModel extends AbstractTableModel {
+        static final String[] COLUMNS = {"Timestamp", "Name", "Contact", "Movie", "Showtime", "Seats", "Total"};
+
+        private final BookingStore store;
+        private final java.util.List<Booking> bookings;
+        private final StringBuilder scratch = new StringBuilder();
+        private int[] view;
+        private int sortColumn = -1;
+        private boolean ascending = true;
+
+        BookingTableModel(BookingStore store) {
+            this.store = store;
+            this.bookings = store.snapshot();
+        }
+
+        // Rows matching q among those present when the model was created.
+        int[] query(BookingQuery q) {
+            return store.query(q, bookings.size());
+        }
+
+        // null shows every booking in file order.
+        void setRows(int[] rows) {
+            view = rows;
+            applySort();
+            fireTableDataChanged();
+        }
+
+        void sortBy(int column) {
+            ascending = column != sortColumn || !ascending;
+            sortColumn = column;
+            applySort();
+            fireTableDataChanged();
+        }
+
+        Booking bookingAt(int row) {
+            return bookings.get(view == null ? row : view[row]);
+        }
+
+        private void applySort() {
+            if (sortColumn < 0) return;
+            int[] rows;
+            if (view == null && sortColumn == 0) {
+                rows = store.timeOrder(bookings.size());
+            } else {
+                rows = view != null ? view : identity(bookings.size());
+                IntSort.sort(rows, comparator(sortColumn));
+            }
+            if (!ascending) IntSort.reverse(rows);
+            view = rows;
+        }
+
+        private IntSort.IntComparator comparator(int column) {
+            switch (column) {
+                case 0: return (a, b) -> bookings.get(a).timestamp.compareTo(bookings.get(b).timestamp);
+                case 1: return (a, b) -> bookings.get(a).name.compareToIgnoreCase(bookings.get(b).name);
+                case 2: return (a, b) -> bookings.get(a).contact.compareToIgnoreCase(bookings.get(b).contact);
+                case 3: return (a, b) -> bookings.get(a).movie.compareTo(bookings.get(b).movie);
+                case 4: return (a, b) -> bookings.get(a).showtime.compareTo(bookings.get(b).showtime);
+                case 5: return (a, b) -> Integer.compare(bookings.get(a).seats.size(), bookings.get(b).seats.size());
+                default: return (a, b) -> Long.compare(bookings.get(a).totalCents, bookings.get(b).totalCents);
+            }
+        }
+
+        private static int[] identity(int n) {
+            int[] rows = new int[n];
+            for (int i = 0; i < n; i++) rows[i] = i;
+            return rows;
+        }
+
+        @Override
+        public int getRowCount() {
+            return view == null ? bookings.size() : view.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column] + (column == sortColumn ? (ascending ? " ▲" : " ▼") : "");
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Booking b = bookingAt(row);
+            switch (column) {
+                case 0: return b.timestamp;
+                case 1: return b.name;
+                case 2: return b.contact;
+                case 3: return b.movie;
+                case 4: return b.showtime;
+                case 5:
+                    scratch.setLength(0);
+                    for (int i = 0; i < b.seats.size(); i++) {
+                        if (i > 0) scratch.append(',');
+                        scratch.append(b.seats.get(i));
+                    }
+                    return scratch.toString();
+                default:
+                    scratch.setLength(0);
+                    return Money.append(scratch, b.totalCents).toString();
+            }
+        }
     }
 
-    class PopcornPanel extends JPanel {
-        BufferedImage image;
+    // All bookings in commit order plus secondary indexes that are updated as
+    // each booking is added: hash indexes on name, contact, movie and showtime
+    // and a sorted index on the booking time. Row ids are list positions.
+    static class BookingStore {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final ArrayList<Booking> rows = new ArrayList<>();
+        // Values are an Integer for a single row or an IntList once a key repeats.
+        private final Map<String, Object> byName = new HashMap<>();
+        private final Map<String, Object> byContact = new HashMap<>();
+        private final Map<String, Object> byMovie = new HashMap<>();
+        private final Map<String, Object> byShowtime = new HashMap<>();
+        private long[] rowTime = new long[1024];
+        private long[] timeKeys = new long[1024];
+        private int[] timeRows = new int[1024];
+        // timeKeys/timeRows are sorted up to sortedPrefix; later entries were
+        // appended out of order and get merged in by ensureTimeOrder().
+        private int sortedPrefix;
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return rows.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        Booking get(int row) {
+            lock.readLock().lock();
+            try {
+                return rows.get(row);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        java.util.List<Booking> snapshot() {
+            lock.readLock().lock();
+            try {
+                return new ArrayList<>(rows);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Rows from (inclusive) to to (exclusive).
+        java.util.List<Booking> range(int from, int to) {
+            lock.readLock().lock();
+            try {
+                return new ArrayList<>(rows.subList(from, to));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void add(Booking b) {
+            addAll(Collections.singletonList(b));
+        }
+
+        void addAll(java.util.List<Booking> batch) {
+            lock.writeLock().lock();
+            try {
+                for (Booking b : batch) {
+                    int row = rows.size();
+                    rows.add(b);
+                    put(byName, b.name, row);
+                    put(byContact, b.contact, row);
+                    put(byMovie, b.movie, row);
+                    put(byShowtime, b.showtime, row);
+                    insertTime(timeKey(b.timestamp), row);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                rows.clear();
+                sortedPrefix = 0;
+                byName.clear();
+                byContact.clear();
+                byMovie.clear();
+                byShowtime.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        Set<String> movies() {
+            return keys(byMovie);
+        }
+
+        Set<String> showtimes() {
+            return keys(byShowtime);
+        }
+
+        java.util.List<Booking> find(BookingQuery q) {
+            lock.readLock().lock();
+            try {
+                int[] found = query(q, rows.size());
+                java.util.List<Booking> out = new ArrayList<>(found.length);
+                for (int row : found) out.add(rows.get(row));
+                return out;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Rows below limit that match q, in commit order. Starts from the smallest
+        // candidate set among the conditions given and checks the rest per row.
+        int[] query(BookingQuery q, int limit) {
+            boolean ranged = q.from != Long.MIN_VALUE || q.to != Long.MAX_VALUE;
+            if (ranged) ensureTimeOrder();
+            lock.readLock().lock();
+            try {
+                int n = Math.min(limit, rows.size());
+                int lo = lowerBound(q.from);
+                int hi = q.to == Long.MAX_VALUE ? sortedPrefix : lowerBound(q.to + 1);
+                // Anything appended out of order since the last merge is scanned too.
+                int tail = rows.size() - sortedPrefix;
+                Object best = null;
+                int bestSize = Integer.MAX_VALUE;
+                String[] keys = {q.name, q.contact, q.movie, q.showtime};
+                java.util.List<Map<String, Object>> indexes = Arrays.asList(byName, byContact, byMovie, byShowtime);
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] == null) continue;
+                    Object entry = indexes.get(i).get(keys[i]);
+                    int size = entry == null ? 0 : entry instanceof Integer ? 1 : ((IntList) entry).size;
+                    if (size < bestSize) {
+                        best = entry;
+                        bestSize = size;
+                    }
+                }
+                int[] candidates;
+                int from = 0, to;
+                if (ranged && hi - lo + tail < bestSize) {
+                    candidates = timeRows;
+                    from = lo;
+                    to = Math.max(lo, hi);
+                } else if (bestSize == Integer.MAX_VALUE) {
+                    candidates = null;
+                    to = n;
+                } else if (best instanceof IntList) {
+                    candidates = ((IntList) best).values;
+                    to = bestSize;
+                } else {
+                    candidates = best == null ? new int[0] : new int[]{(Integer) best};
+                    to = candidates.length;
+                }
+                IntList out = new IntList();
+                for (int i = from; i < to; i++) {
+                    int row = candidates == null ? i : candidates[i];
+                    if (row < n && matches(q, row)) out.add(row);
+                }
+                if (candidates == timeRows) {
+                    for (int i = sortedPrefix; i < rows.size(); i++) {
+                        if (timeRows[i] < n && matches(q, timeRows[i])) out.add(timeRows[i]);
+                    }
+                }
+                int[] result = out.toArray();
+                if (candidates == timeRows) Arrays.sort(result);
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
 
-        public PopcornPanel() {
-            String path = System.getProperty("c:\\Users\\RYZEN  5 3500X") + File.separator + "Downloads" + File.separator + "Simply-Recipes-Perfect-Popcorn-LEAD-41-4a75a18443ae45aa96053f30a3ed0a6b.jfif\r\n" +
-                                "            try {";
+        private boolean matches(BookingQuery q, int row) {
+            Booking b = rows.get(row);
+            return (q.name == null || q.name.equals(b.name))
+                    && (q.contact == null || q.contact.equals(b.contact))
+                    && (q.movie == null || q.movie.equals(b.movie))
+                    && (q.showtime == null || q.showtime.equals(b.showtime))
+                    && rowTime[row] >= q.from && rowTime[row] <= q.to;
+        }
+
+        // Rows below limit ordered by booking time.
+        int[] timeOrder(int limit) {
+            lock.writeLock().lock();
+            try {
+                mergeTimeTail();
+                int n = rows.size();
+                IntList out = new IntList();
+                for (int i = 0; i < n; i++) {
+                    if (timeRows[i] < limit) out.add(timeRows[i]);
+                }
+                return out.toArray();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void ensureTimeOrder() {
+            lock.readLock().lock();
+            try {
+                if (sortedPrefix == rows.size()) return;
+            } finally {
+                lock.readLock().unlock();
+            }
+            lock.writeLock().lock();
+            try {
+                mergeTimeTail();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Sorts the out-of-order tail and merges it into the sorted prefix.
+        private void mergeTimeTail() {
+            int n = rows.size();
+            if (sortedPrefix == n) return;
+            int[] tail = Arrays.copyOfRange(timeRows, sortedPrefix, n);
+            long[] keyOf = rowTime;
+            IntSort.sort(tail, (a, b) -> Long.compare(keyOf[a], keyOf[b]));
+            long[] keys = new long[timeKeys.length];
+            int[] merged = new int[timeRows.length];
+            int p = 0, q = 0, i = 0;
+            while (p < sortedPrefix || q < tail.length) {
+                if (q >= tail.length || (p < sortedPrefix && timeKeys[p] <= keyOf[tail[q]])) {
+                    keys[i] = timeKeys[p];
+                    merged[i++] = timeRows[p++];
+                } else {
+                    keys[i] = keyOf[tail[q]];
+                    merged[i++] = tail[q++];
+                }
+            }
+            timeKeys = keys;
+            timeRows = merged;
+            sortedPrefix = n;
+        }
+
+        // yyyyMMddHHmmss as a number, so it orders like the local time it encodes
+        // without any zone arithmetic. Unparseable timestamps sort first.
+        static long timeKey(String ts) {
+            if (ts == null || ts.length() < 10) return Long.MIN_VALUE;
+            long key = 0;
+            int digits = 0;
+            for (int i = 0; i < ts.length() && digits < 14; i++) {
+                char c = ts.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    key = key * 10 + (c - '0');
+                    digits++;
+                } else if (c != '-' && c != ' ' && c != ':') {
+                    return Long.MIN_VALUE;
+                }
+            }
+            if (digits < 8) return Long.MIN_VALUE;
+            for (; digits < 14; digits++) key *= 10;
+            return key;
+        }
+
+        // Key of the first (or last) second of a yyyy-MM-dd date, or null if the
+        // text is not a date.
+        static Long dateKey(String date, boolean endOfDay) {
+            if (date == null || !date.matches("\\d{4}-\\d{2}-\\d{2}")) return null;
+            long key = timeKey(date);
+            return endOfDay ? key + 235959 : key;
+        }
+
+        private static void put(Map<String, Object> index, String key, int row) {
+            Object current = index.get(key);
+            if (current == null) {
+                index.put(key, row);
+            } else if (current instanceof Integer) {
+                IntList list = new IntList();
+                list.add((Integer) current);
+                list.add(row);
+                index.put(key, list);
+            } else {
+                ((IntList) current).add(row);
+            }
+        }
+
+        private Set<String> keys(Map<String, Object> index) {
+            lock.readLock().lock();
             try {
-                image = ImageIO.read(new File(path));
-            } catch (Exception e) {
-                image = null;
+                return new TreeSet<>(index.keySet());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Bookings normally arrive in time order, which keeps this an append. An
+        // out-of-order key only stops the sorted prefix from growing.
+        private void insertTime(long key, int row) {
+            if (row == timeKeys.length) {
+                int capacity = row * 2;
+                timeKeys = Arrays.copyOf(timeKeys, capacity);
+                timeRows = Arrays.copyOf(timeRows, capacity);
+                rowTime = Arrays.copyOf(rowTime, capacity);
+            }
+            rowTime[row] = key;
+            timeKeys[row] = key;
+            timeRows[row] = row;
+            if (sortedPrefix == row && (row == 0 || timeKeys[row - 1] <= key)) sortedPrefix = row + 1;
+        }
+
+        private int lowerBound(long key) {
+            int lo = 0, hi = sortedPrefix;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timeKeys[mid] < key) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    // Conditions for BookingStore.query(); unset fields match everything.
+    static final class BookingQuery {
+        String name;
+        String contact;
+        String movie;
+        String showtime;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+
+        BookingQuery name(String v) { name = v; return this; }
+        BookingQuery contact(String v) { contact = v; return this; }
+        BookingQuery movie(String v) { movie = v; return this; }
+        BookingQuery showtime(String v) { showtime = v; return this; }
+
+        // Inclusive bounds as BookingStore.timeKey() values.
+        BookingQuery between(long fromKey, long toKey) {
+            from = fromKey;
+            to = toKey;
+            return this;
+        }
+    }
+
+    static final class IntList {
+        int[] values = new int[8];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // Stable merge sort of int ids by a caller-supplied order, without boxing.
+    static final class IntSort {
+        interface IntComparator {
+            int compare(int a, int b);
+        }
+
+        static void sort(int[] a, IntComparator c) {
+            mergeSort(a.clone(), a, 0, a.length, c);
+        }
+
+        static void reverse(int[] a) {
+            for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+                int t = a[i];
+                a[i] = a[j];
+                a[j] = t;
+            }
+        }
+
+        private static void mergeSort(int[] src, int[] dst, int lo, int hi, IntComparator c) {
+            if (hi - lo < 16) {
+                for (int i = lo + 1; i < hi; i++) {
+                    int v = dst[i];
+                    int j = i - 1;
+                    while (j >= lo && c.compare(dst[j], v) > 0) {
+                        dst[j + 1] = dst[j];
+                        j--;
+                    }
+                    dst[j + 1] = v;
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            mergeSort(dst, src, lo, mid, c);
+            mergeSort(dst, src, mid, hi, c);
+            for (int i = lo, p = lo, q = mid; i < hi; i++) {
+                if (q >= hi || (p < mid && c.compare(src[p], src[q]) <= 0)) dst[i] = src[p++];
+                else dst[i] = src[q++];
+            }
+        }
+    }
+
+    static class PopcornPanel extends JPanel {
+        static final Path IMAGE = Paths.get(System.getProperty("cinema.sidebar.image", Paths.get(System.getProperty("user.home"),
+                "Downloads", "Simply-Recipes-Perfect-Popcorn-LEAD-41-4a75a18443ae45aa96053f30a3ed0a6b.jfif").toString()));
+        static final Color SHADE = new Color(0, 0, 0, 150);
+
+        private BufferedImage image;
+        // The finished background at the current size. Hover and layout repaints
+        // just copy it; a resize or a newly loaded image renders it again.
+        private BufferedImage background;
+
+        PopcornPanel(BackgroundTasks tasks) {
+            if (Files.isReadable(IMAGE)) {
+                tasks.run(() -> ImageIO.read(IMAGE.toFile()), loaded -> {
+                    image = loaded;
+                    background = null;
+                    repaint();
+                }, Throwable::printStackTrace);
             }
         }
 
         @Override
         protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
             int panelWidth = getWidth();
             int panelHeight = getHeight();
-            if (image != null) {
-                Image scaled = image.getScaledInstance(panelWidth, panelHeight, Image.SCALE_SMOOTH);
-                g.drawImage(scaled, 0, 0, null);
-                Graphics2D g2 = (Graphics2D) g;
-                g2.setColor(new Color(0, 0, 0, 150));
-                g2.fillRect(0, 0, panelWidth, panelHeight);
-            } else {
-                Graphics2D g2 = (Graphics2D) g;
-                GradientPaint gp = new GradientPaint(0, 0, Color.DARK_GRAY, panelWidth, panelHeight, Color.BLACK);
-                g2.setPaint(gp);
-                g2.fillRect(0, 0, panelWidth, panelHeight);
+            if (panelWidth <= 0 || panelHeight <= 0) return;
+            if (background == null || background.getWidth() != panelWidth || background.getHeight() != panelHeight) {
+                background = render(panelWidth, panelHeight);
+            }
+            g.drawImage(background, 0, 0, null);
+        }
+
+        private BufferedImage render(int panelWidth, int panelHeight) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            BufferedImage out = gc != null ? gc.createCompatibleImage(panelWidth, panelHeight)
+                    : new BufferedImage(panelWidth, panelHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = out.createGraphics();
+            try {
+                if (image != null) {
+                    g2.drawImage(image.getScaledInstance(panelWidth, panelHeight, Image.SCALE_SMOOTH), 0, 0, null);
+                    g2.setColor(SHADE);
+                    g2.fillRect(0, 0, panelWidth, panelHeight);
+                } else {
+                    g2.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, panelWidth, panelHeight, Color.BLACK));
+                    g2.fillRect(0, 0, panelWidth, panelHeight);
+                }
+            } finally {
+                g2.dispose();
             }
+            return out;
         }
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--convert-bookings")) {
+            Path home = Paths.get(System.getProperty("user.home"));
+            Path csv = args.length > 1 ? Paths.get(args[1]) : home.resolve("cinema_bookings.csv");
+            Path bin = args.length > 2 ? Paths.get(args[2]) : home.resolve("cinema_bookings.bin");
+            try {
+                long n = BinaryBookingFormat.convert(csv, bin);
+                System.out.println("Converted " + n + " bookings: " + csv + " -> " + bin
+                        + " (" + Files.size(csv) + " -> " + Files.size(bin) + " bytes)");
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--export-receipts")) {
+            // --export-receipts <file.zip|dir> [contact]
+            try (BookingSystem system = new BookingSystem(Paths.get(System.getProperty("user.home"), "cinema_bookings.csv"), BINARY_STORE)) {
+                system.loadBookingsFromFile(batch -> { });
+                system.loadHistory();
+                java.util.List<Booking> all = system.store.snapshot();
+                java.util.List<Booking> chosen = all;
+                if (args.length > 2) {
+                    chosen = new ArrayList<>();
+                    for (int row : system.store.query(new BookingQuery().contact(args[2]), all.size())) chosen.add(all.get(row));
+                }
+                long start = System.nanoTime();
+                long n = system.exportReceipts(chosen, Paths.get(args[1]), null);
+                System.out.printf(Locale.US, "Exported %d receipts to %s in %.1f ms%n", n, args[1], (System.nanoTime() - start) / 1e6);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--compact")) {
+            try (BookingSystem system = new BookingSystem(Paths.get(System.getProperty("user.home"), "cinema_bookings.csv"), BINARY_STORE)) {
+                long start = System.nanoTime();
+                long hot = system.checkpoint();
+                if (hot < 0) System.out.println("Nothing to compact in " + system.bookingsFile);
+                else System.out.printf(Locale.US, "Checkpointed %d bookings to %s in %.1f ms%n", hot, system.checkpointFile, (System.nanoTime() - start) / 1e6);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--import-bookings")) {
+            // --import-bookings <file>; lines in the cinema_bookings.csv format.
+            try (BookingSystem system = new BookingSystem(Paths.get(System.getProperty("user.home"), "cinema_bookings.csv"), BINARY_STORE)) {
+                system.loadMovies();
+                system.loadBookingsFromFile(batch -> { });
+                long start = System.nanoTime();
+                BookingSystem.ImportResult r = system.importBookings(Paths.get(args[1]));
+                System.out.printf(Locale.US, "Imported %d bookings from %s in %.1f ms; skipped %d%n",
+                        r.imported, args[1], (System.nanoTime() - start) / 1e6, r.skipped());
+                if (r.malformed > 0) System.out.println("  " + r.malformed + " malformed line(s): missing fields or a total that is not an amount");
+                if (r.unknownScreening > 0) System.out.println("  " + r.unknownScreening + " for a screening that is not scheduled");
+                if (r.unknownSeats > 0) System.out.println("  " + r.unknownSeats + " with no seats or seats the hall does not have");
+                if (r.seatsTaken > 0) System.out.println("  " + r.seatsTaken + " for seats already sold");
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--standby")) {
+            // --standby <primary host:port> [http port]; reads are served, sales wait for POST /promote.
+            BookingSystem system = new BookingSystem(Paths.get(System.getProperty("user.home"), "cinema_bookings.csv"), BINARY_STORE);
+            try {
+                int colon = args[1].lastIndexOf(':');
+                if (colon < 0) throw new IllegalArgumentException("--standby needs host:port, got " + args[1]);
+                system.startMetrics();
+                system.loadMovies();
+                system.watchMovies();
+                long n = system.loadBookingsFromFile(batch -> { });
+                System.err.println("Loaded " + n + " bookings from " + system.bookingsFile);
+                system.startCheckpoints();
+                system.follow(args[1].substring(0, colon), Integer.parseInt(args[1].substring(colon + 1)));
+                BookingServer server = BookingServer.start(system, args.length > 2 ? Integer.parseInt(args[2]) : 8081);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.stop();
+                    system.close();
+                }, "booking-server-stop"));
+            } catch (IOException | IllegalArgumentException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            BookingSystem system = new BookingSystem(Paths.get(System.getProperty("user.home"), "cinema_bookings.csv"), BINARY_STORE);
+            try {
+                system.startMetrics();
+                system.loadMovies();
+                system.watchMovies();
+                long n = system.loadBookingsFromFile(batch -> { });
+                System.err.println("Loaded " + n + " bookings from " + system.bookingsFile);
+                system.startCheckpoints();
+                system.startPrimary();
+                BookingServer server = BookingServer.start(system, args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.stop();
+                    system.close();
+                }, "booking-server-stop"));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
         SwingUtilities.invokeLater(() -> new Cinema_FullSystem());
     }
 }
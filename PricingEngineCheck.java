@@ -0,0 +1,215 @@
+import java.time.LocalDate;
+import java.util.*;
+
+// Exact-total checks for PricingEngine and Money: per-seat category rounding,
+// time bands that wrap past midnight, the larger of code and group discounts,
+// several taxes on the discounted subtotal, and the rounding and parsing edges
+// of Money. Every expected value is worked out by hand in cents.
+//
+//   javac -encoding UTF-8 Cinema_FullSystem.java PricingEngineCheck.java
+//   java PricingEngineCheck
+//
+// Prints each failed check and exits with status 1 if there was one.
+public class PricingEngineCheck {
+    static final LocalDate DAY = LocalDate.of(2026, 11, 2);
+    static final Cinema_FullSystem.Hall HALL_1 = Cinema_FullSystem.Hall.standard("Hall 1");
+    static final Cinema_FullSystem.Hall HALL_2 = new Cinema_FullSystem.Hall("Hall 2",
+            "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS",
+            "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS",
+            "PPPP.PPPPPP.PPPP", "PPPP.PPPPPP.PPPP");
+    static final Cinema_FullSystem.Hall HALL_3 = new Cinema_FullSystem.Hall("Hall 3", "VV.VV.VV", "VV.VV.VV", "VV.VV.VV", "VV.VV.VV");
+
+    private int checks;
+    private int failures;
+
+    public static void main(String[] args) {
+        PricingEngineCheck c = new PricingEngineCheck();
+        c.defaults();
+        c.categories();
+        c.timeBands();
+        c.discountsAndTaxes();
+        c.money();
+        System.out.println(c.checks + " checks, " + c.failures + " failed");
+        System.exit(c.failures == 0 ? 0 : 1);
+    }
+
+    // 2 x 240.00 plus 12% VAT: the receipt in the ReadMe.
+    void defaults() {
+        Cinema_FullSystem.PricingEngine p = Cinema_FullSystem.PricingEngine.defaults();
+        Cinema_FullSystem.PricingEngine.Quote q = quote(p, movie(24000), screening(HALL_1, "7:00 PM"), null, "A1", "A2");
+        check("defaults subtotal", 48000, q.subtotal);
+        check("defaults discount", 0, q.discount);
+        check("defaults VAT", 5760, q.tax);
+        check("defaults total", 53760, q.total);
+        check("tax rules", 1, p.taxRules());
+        checkText("tax label", "VAT (12%)", p.taxLabel(0));
+    }
+
+    // Categories scale each seat and round it on its own.
+    void categories() {
+        Cinema_FullSystem.PricingEngine p = Cinema_FullSystem.PricingEngine.defaults();
+        // 199.99 standard + 199.99 * 125% = 249.9875 -> 249.99; VAT 539.976 -> 54.00.
+        Cinema_FullSystem.PricingEngine.Quote q = quote(p, movie(19999), screening(HALL_2, "7:00 PM"), null, "A1", "I1");
+        check("standard + premium subtotal", 44998, q.subtotal);
+        check("standard + premium VAT", 5400, q.tax);
+        check("standard + premium total", 50398, q.total);
+        // 0.01 * 150% = 0.015 rounds up per seat, so three seats are 0.06, not 0.05.
+        q = quote(p, movie(1), screening(HALL_3, "7:00 PM"), null, "A1", "A2", "A3");
+        check("per-seat rounding subtotal", 6, q.subtotal);
+        check("per-seat rounding total", 7, q.total);
+        // Seats the hall does not know are priced as standard.
+        q = quote(p, movie(10000), screening(HALL_3, "7:00 PM"), null, "Z9");
+        check("unknown seat subtotal", 10000, q.subtotal);
+        // A rate from the file replaces the built-in one.
+        Properties config = new Properties();
+        config.setProperty("category.VIP", "175.5");
+        q = quote(new Cinema_FullSystem.PricingEngine(config), movie(10000), screening(HALL_3, "7:00 PM"), null, "A1");
+        check("VIP override subtotal", 17550, q.subtotal);
+    }
+
+    // Bands include both ends; a band whose end is before its start wraps past midnight.
+    void timeBands() {
+        Properties config = new Properties();
+        config.setProperty("time.10:00-16:59", "80");
+        config.setProperty("time.22:00-02:59", "70");
+        Cinema_FullSystem.PricingEngine p = new Cinema_FullSystem.PricingEngine(config);
+        Cinema_FullSystem.Movie m = movie(10000);
+        String[][] cases = {
+                {"9:59 PM", "11200"}, {"10:00 PM", "7840"}, {"11:30 PM", "7840"}, {"12:00 AM", "7840"},
+                {"2:59 AM", "7840"}, {"3:00 AM", "11200"}, {"9:59 AM", "11200"}, {"10:00 AM", "8960"},
+                {"4:59 PM", "8960"}, {"5:00 PM", "11200"}, {"Midnight", "11200"},
+        };
+        for (String[] c : cases) {
+            check("band at " + c[0], Long.parseLong(c[1]), quote(p, m, screening(HALL_1, c[0]), null, "A1").total);
+        }
+    }
+
+    // Code and group discounts do not add up: the larger one applies, once, to
+    // the subtotal, and each tax is charged on what is left.
+    void discountsAndTaxes() {
+        Properties config = new Properties();
+        config.setProperty("tax.VAT", "12");
+        config.setProperty("tax.CITY", "2.5");
+        config.setProperty("discount.code.STUDENT", "20");
+        config.setProperty("discount.code.HALF", "50");
+        config.setProperty("discount.group.4", "15");
+        config.setProperty("discount.group.10", "25");
+        Cinema_FullSystem.PricingEngine p = new Cinema_FullSystem.PricingEngine(config);
+        Cinema_FullSystem.Movie m = movie(15000);
+        Cinema_FullSystem.Screening s = screening(HALL_1, "7:00 PM");
+        check("tax rules", 2, p.taxRules());
+        checkText("second tax label", "VAT (12%)", p.taxLabel(1));
+        checkText("first tax label", "CITY (2.5%)", p.taxLabel(0));
+
+        // 450.00 + 54.00 VAT + 11.25 city.
+        Cinema_FullSystem.PricingEngine.Quote q = quote(p, m, s, null, seats(3));
+        check("3 seats total", 51525, q.total);
+        check("3 seats CITY", 1125, q.taxes[0]);
+        check("3 seats VAT", 5400, q.taxes[1]);
+        // The code is matched ignoring case and surrounding spaces.
+        q = quote(p, m, s, " student ", seats(3));
+        check("3 seats STUDENT discount", 9000, q.discount);
+        check("3 seats STUDENT total", 41220, q.total);
+        check("unknown code ignored", 51525, quote(p, m, s, "NOPE", seats(3)).total);
+        check("unknown code not known", 0, p.knowsCode("NOPE") ? 1 : 0);
+        // Four seats reach the 15% group rate.
+        q = quote(p, m, s, null, seats(4));
+        check("4 seats group discount", 9000, q.discount);
+        check("4 seats group total", 58395, q.total);
+        // STUDENT 20% beats group 15%; they are not stacked to 35% or compounded.
+        q = quote(p, m, s, "STUDENT", seats(4));
+        check("4 seats STUDENT over group discount", 12000, q.discount);
+        check("4 seats STUDENT over group total", 54960, q.total);
+        // Group 25% beats STUDENT 20%; city tax 28.125 rounds to 28.13.
+        q = quote(p, m, s, "STUDENT", seats(10));
+        check("10 seats group over STUDENT discount", 37500, q.discount);
+        check("10 seats CITY", 2813, q.taxes[0]);
+        check("10 seats total", 128813, q.total);
+        // 0.33 at half off: discount 0.165 -> 0.17, VAT 0.0192 -> 0.02, city 0.004 -> 0.00.
+        q = quote(p, movie(33), s, "HALF", "A1");
+        check("odd cent discount", 17, q.discount);
+        check("odd cent tax", 2, q.tax);
+        check("odd cent total", 18, q.total);
+
+        // Holds quote from a bit set; it must agree with the seat names.
+        java.util.List<String> names = Arrays.asList(seats(10));
+        Cinema_FullSystem.PricingEngine.Quote bits = p.newQuote();
+        p.quote(m, s, HALL_1.toSet(names, true), "STUDENT", bits);
+        check("bit set quote", 128813, bits.total);
+        check("total()", 128813, p.total(m, s, names, "STUDENT"));
+    }
+
+    void money() {
+        checkText("format 0", "0.00", Cinema_FullSystem.Money.format(0));
+        checkText("format 5", "0.05", Cinema_FullSystem.Money.format(5));
+        checkText("format -5", "-0.05", Cinema_FullSystem.Money.format(-5));
+        checkText("format -150", "-1.50", Cinema_FullSystem.Money.format(-150));
+        checkText("format 123456", "1234.56", Cinema_FullSystem.Money.format(123456));
+        checkText("format max", "92233720368547758.07", Cinema_FullSystem.Money.format(Long.MAX_VALUE));
+
+        String[][] parses = {
+                {"537.60", "53760"}, {"537.6", "53760"}, {"537", "53700"}, {"1.", "100"}, {".5", "50"},
+                {"+3", "300"}, {" 7.10 ", "710"}, {"0.005", "1"}, {"0.004", "0"}, {"0.0049", "0"},
+                {"0.0051", "1"}, {"12.345", "1235"}, {"12.994", "1299"}, {"12.995", "1300"},
+                {"-0.005", "-1"}, {"-12.345", "-1235"}, {"9999999999999999.99", "999999999999999999"},
+        };
+        for (String[] c : parses) check("parse \"" + c[0] + "\"", Long.parseLong(c[1]), Cinema_FullSystem.Money.parse(c[0]));
+        for (String bad : new String[]{"", " ", "-", ".", "abc", "1.2.3", "1e3", "1,5", "12345678901234567", "\u0661\u0662", "1.\u0665"}) {
+            checks++;
+            try {
+                long v = Cinema_FullSystem.Money.parse(bad);
+                fail("parse \"" + bad + "\" should throw, got " + v);
+            } catch (NumberFormatException expected) {
+                // The error the callers report.
+            }
+        }
+        for (long cents : new long[]{0, 1, 9, 10, 99, 100, 101, -1, -99, -100, 123456789, 999999999999999999L}) {
+            check("round trip " + cents, cents, Cinema_FullSystem.Money.parse(Cinema_FullSystem.Money.format(cents)));
+        }
+
+        check("scale 0.01 by 50%", 1, Cinema_FullSystem.Money.scale(1, 5000));
+        check("scale -0.01 by 50%", -1, Cinema_FullSystem.Money.scale(-1, 5000));
+        check("scale 0.01 by 49.99%", 0, Cinema_FullSystem.Money.scale(1, 4999));
+        check("scale -0.01 by 49.99%", 0, Cinema_FullSystem.Money.scale(-1, 4999));
+        check("scale 0.03 by 50%", 2, Cinema_FullSystem.Money.scale(3, 5000));
+        check("scale by 0%", 0, Cinema_FullSystem.Money.scale(12345, 0));
+        check("scale by 100%", 12345, Cinema_FullSystem.Money.scale(12345, 10000));
+        check("scale 1,000,000.00 by 112.5%", 11250000000L, Cinema_FullSystem.Money.scale(10000000000L, 11250));
+    }
+
+    static Cinema_FullSystem.Movie movie(long cents) {
+        return new Cinema_FullSystem.Movie("Check", "Drama", 8.0, Collections.singletonList("7:00 PM"), cents);
+    }
+
+    static Cinema_FullSystem.Screening screening(Cinema_FullSystem.Hall hall, String time) {
+        return new Cinema_FullSystem.Screening("Check", hall, DAY, time);
+    }
+
+    static String[] seats(int n) {
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) out[i] = Cinema_FullSystem.OccupancyIndex.seatName(i);
+        return out;
+    }
+
+    static Cinema_FullSystem.PricingEngine.Quote quote(Cinema_FullSystem.PricingEngine p, Cinema_FullSystem.Movie m,
+                                                       Cinema_FullSystem.Screening s, String code, String... seats) {
+        Cinema_FullSystem.PricingEngine.Quote q = p.newQuote();
+        p.quote(m, s, Arrays.asList(seats), code, q);
+        return q;
+    }
+
+    void check(String what, long expected, long actual) {
+        checks++;
+        if (expected != actual) fail(what + ": expected " + expected + ", got " + actual);
+    }
+
+    void checkText(String what, String expected, String actual) {
+        checks++;
+        if (!expected.equals(actual)) fail(what + ": expected \"" + expected + "\", got \"" + actual + "\"");
+    }
+
+    void fail(String message) {
+        failures++;
+        System.out.println("FAILED " + message);
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hammers seat holds on one screening from many threads and fails unless every
+// sold seat was sold exactly once. Threads hold 1-4 random seats, then confirm,
+// release or abandon the hold; holds live a few milliseconds so the expiry
+// sweep and confirm-after-expiry race with fresh holds the whole time. When the
+// screening sells out, every thread moves on to the next one.
+//
+//   javac -encoding UTF-8 Cinema_FullSystem.java SeatReservationStressTest.java
+//   java SeatReservationStressTest [threads] [seconds]
+//
+// Defaults: 16 threads, 10 seconds. The exit status is 1 on a double sale.
+public class SeatReservationStressTest {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Cinema_FullSystem.Schedule schedule = new Cinema_FullSystem.Schedule();
+        Cinema_FullSystem.Hall hall = schedule.addHall(new Cinema_FullSystem.Hall("Hall 2",
+                "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS",
+                "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS", "SSSS.SSSSSS.SSSS",
+                "PPPP.PPPPPP.PPPP", "PPPP.PPPPPP.PPPP"));
+        java.util.List<Cinema_FullSystem.Screening> screenings = new CopyOnWriteArrayList<>();
+        screenings.add(schedule.add("Stress", hall, java.time.LocalDate.now(), "7:00 PM"));
+        Cinema_FullSystem.SeatReservations reservations = new Cinema_FullSystem.SeatReservations();
+        java.util.List<String> names = hall.seatNames();
+
+        AtomicLong holds = new AtomicLong(), conflicts = new AtomicLong(), lateConfirms = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        java.util.List<Future<java.util.List<String>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            results.add(pool.submit(() -> {
+                Random rnd = new Random(seed);
+                java.util.List<String> sold = new ArrayList<>();
+                start.await();
+                while (System.nanoTime() < deadline) {
+                    int round = screenings.size() - 1;
+                    Cinema_FullSystem.Screening screening = screenings.get(round);
+                    if (screening.free() == 0) {
+                        synchronized (screenings) {
+                            if (screenings.size() == round + 1) {
+                                screenings.add(schedule.add("Stress", hall, java.time.LocalDate.now().plusDays(round + 1), "7:00 PM"));
+                            }
+                        }
+                        continue;
+                    }
+                    java.util.List<String> wanted = new ArrayList<>();
+                    for (int k = 1 + rnd.nextInt(4); k > 0; k--) wanted.add(names.get(rnd.nextInt(names.size())));
+                    Cinema_FullSystem.SeatReservations.Hold h = reservations.hold(screening, wanted, 1 + rnd.nextInt(5));
+                    if (h == null) {
+                        conflicts.incrementAndGet();
+                        continue;
+                    }
+                    holds.incrementAndGet();
+                    int action = rnd.nextInt(10);
+                    if (action < 2) {
+                        reservations.release(h);
+                    } else if (action < 4) {
+                        // Abandoned: a later sweep expires it.
+                        reservations.expireHolds();
+                    } else {
+                        if (action == 9) {
+                            Thread.sleep(rnd.nextInt(6));
+                            reservations.expireHolds();
+                        }
+                        boolean expired = h.expiresAt <= System.currentTimeMillis();
+                        if (reservations.confirm(h)) {
+                            for (String seat : h.seatNames()) sold.add(round + ":" + seat);
+                            if (expired) lateConfirms.incrementAndGet();
+                        }
+                    }
+                }
+                return sold;
+            }));
+        }
+        java.util.List<String> sold = new ArrayList<>();
+        for (Future<java.util.List<String>> f : results) sold.addAll(f.get());
+        pool.shutdown();
+        Thread.sleep(10);
+        reservations.expireHolds();
+        reservations.close();
+
+        Set<String> unique = new HashSet<>(sold);
+        int occupied = 0;
+        for (Cinema_FullSystem.Screening s : screenings) occupied += hall.seatCount - s.free();
+        System.out.printf(Locale.US, "%d threads, %d s: %d holds, %d conflicts, %d confirmed after expiry%n",
+                threads, seconds, holds.get(), conflicts.get(), lateConfirms.get());
+        System.out.printf(Locale.US, "%d screenings: sold %d seats, %d unique, %d occupied%n",
+                screenings.size(), sold.size(), unique.size(), occupied);
+        if (sold.size() != unique.size() || unique.size() != occupied) {
+            System.out.println("FAILED: a seat was sold twice or the seat map disagrees with the sales");
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+}
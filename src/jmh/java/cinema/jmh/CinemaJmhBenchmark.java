@@ -0,0 +1,108 @@
+package cinema.jmh;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+// The CinemaBenchmark scenarios under JMH; each method runs the scenario of the
+// same name. JMH will not generate code for the default package, and a named
+// package cannot see it, so the scenario is looked up by reflection once per
+// trial and then driven through Callable.
+//
+//   mvn -Pjmh package
+//   java -jar target/benchmarks.jar -p size=1000,10000000 -p format=binary
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CinemaJmhBenchmark {
+    // CinemaBenchmark.BATCH; setUp checks that the two agree.
+    static final int BATCH = 1000;
+    // CinemaBenchmark.RECEIPTS, checked the same way.
+    static final int RECEIPTS = 10_000;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"text"})
+    public String format;
+
+    private Closeable scenario;
+    private Callable<Object> op;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp(BenchmarkParams params) throws Exception {
+        String name = params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.') + 1);
+        Object s = Class.forName("CinemaBenchmark").getMethod("scenario", String.class, int.class, boolean.class)
+                .invoke(null, name, size, "binary".equalsIgnoreCase(format));
+        scenario = (Closeable) s;
+        op = (Callable<Object>) s;
+        int perCall = s.getClass().getField("perCall").getInt(s);
+        if (perCall != params.getOpsPerInvocation()) {
+            scenario.close();
+            throw new IllegalStateException(name + " covers " + perCall + " operations per call, not " + params.getOpsPerInvocation());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        scenario.close();
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return op.call();
+    }
+
+    // The checkpoint it restarts from is taken once, in setUp.
+    @Benchmark
+    public Object restart() throws Exception {
+        return op.call();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object append() throws Exception {
+        return op.call();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object save() throws Exception {
+        return op.call();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object occupancy() throws Exception {
+        return op.call();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object group() throws Exception {
+        return op.call();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object checkout() throws Exception {
+        return op.call();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECEIPTS)
+    public Object receipts() throws Exception {
+        return op.call();
+    }
+
+    @Benchmark
+    public Object catalog() throws Exception {
+        return op.call();
+    }
+}